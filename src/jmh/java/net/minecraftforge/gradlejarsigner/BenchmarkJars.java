@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/** Synthetic inputs for the benchmarks, generated locally so they run offline. */
+final class BenchmarkJars {
+    static final String ALIAS = "bench";
+    static final String PASSWORD = "password";
+
+    private BenchmarkJars() {}
+
+    /**
+     * Writes a jar shaped like a large mod or library: classes spread over packages, with some resources mixed in.
+     * The content is seeded so every run digests the same bytes, and only partially compressible, like class files.
+     */
+    static void create(File file, int entries, int size) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        Random random = new Random(entries * 31L + size);
+        byte[] data = new byte[size];
+        try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())), manifest)) {
+            for (int x = 0; x < entries; x++) {
+                for (int y = 0; y < size; y++)
+                    data[y] = (byte)(y % 4 == 0 ? random.nextInt() : 'a' + random.nextInt(16));
+                out.putNextEntry(new ZipEntry(getName(x)));
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+    }
+
+    static String getName(int index) {
+        String dir = "net/example/pkg" + (index % 100) + "/sub" + (index % 7) + '/';
+        if (index % 20 == 0)
+            return dir + "doc/Entry" + index + ".txt";
+        if (index % 10 == 0)
+            return dir + "Entry" + index + ".properties";
+        return dir + "Entry" + index + ".class";
+    }
+
+    /** Creates a throwaway PKCS12 keystore with keytool, the same tool people generate their real ones with. */
+    static File createKeyStore(File dir) throws IOException, InterruptedException {
+        File keyStore = new File(dir, "bench.p12");
+        String exe = System.getProperty("os.name").toLowerCase().startsWith("windows") ? "keytool.exe" : "keytool";
+        Process process = new ProcessBuilder(
+            new File(System.getProperty("java.home"), "bin/" + exe).getAbsolutePath(),
+            "-genkeypair",
+            "-alias", ALIAS,
+            "-keyalg", "RSA",
+            "-keysize", "2048",
+            "-validity", "1",
+            "-dname", "CN=Benchmark",
+            "-storetype", "PKCS12",
+            "-keystore", keyStore.getAbsolutePath(),
+            "-storepass", PASSWORD,
+            "-keypass", PASSWORD
+        ).redirectErrorStream(true).redirectOutput(new File(dir, "keytool.log")).start();
+
+        if (!process.waitFor(1, TimeUnit.MINUTES) || process.exitValue() != 0)
+            throw new IOException("Failed to generate benchmark keystore with keytool, see " + new File(dir, "keytool.log"));
+        return keyStore;
+    }
+
+    static void delete(File dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the digest algorithms that can be picked with {@code digestAlg}, and the provider the digester picks
+ * against whichever one is registered first. Scores are entries per second, the bytes counter is the throughput.
+ * Which algorithm wins depends on the CPU: with SHA instructions SHA-256 is fastest, without them SHA-512 usually is.
+ */
+@State(Scope.Benchmark)
+public class DigestBenchmark {
+    @Param({"SHA-256", "SHA-384", "SHA-512"})
+    public String algorithm;
+
+    /** Same sizes as {@link SignBenchmark} */
+    @Param({"512", "8192"})
+    public int size;
+
+    private byte[] data;
+    private MessageDigest intrinsic;
+    private MessageDigest first;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        this.data = new byte[this.size];
+        new Random(this.size).nextBytes(this.data);
+        this.intrinsic = Digester.newDigest(this.algorithm);
+
+        // Highest priority provider that has the algorithm, which is what MessageDigest.getInstance would use
+        for (Provider provider : Security.getProviders()) {
+            if (provider.getService("MessageDigest", this.algorithm) != null) {
+                this.first = MessageDigest.getInstance(this.algorithm, provider);
+                break;
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] intrinsic(SignBenchmark.Throughput counter) {
+        this.intrinsic.update(this.data);
+        counter.bytes += this.size;
+        return this.intrinsic.digest();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] firstProvider(SignBenchmark.Throughput counter) {
+        this.first.update(this.data);
+        counter.bytes += this.size;
+        return this.first.digest();
+    }
+}
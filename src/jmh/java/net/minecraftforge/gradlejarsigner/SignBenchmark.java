@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.util.PatternSet;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks the native signing pipeline over synthetic jars. Each stage is measured on its own:
+ * {@link #sign} is everything the sign worker does, {@link #digest} and {@link #rewrite} report how many
+ * uncompressed bytes per second go through the digester and zip writer, and {@link #filter} is how long it
+ * takes to resolve the task's filters. The build runs them with the gc profiler, for allocation rates.
+ */
+@State(Scope.Benchmark)
+public class SignBenchmark {
+    @Param({"1000", "50000", "200000"})
+    public int entries;
+
+    /** Small is about the size of a typical class file, large of a texture or a big class */
+    @Param({"small", "large"})
+    public String entrySize;
+
+    @Param({"false", "true"})
+    public boolean excludes;
+
+    private File dir;
+    private File input;
+    private File output;
+    private long bytes;
+    private SigningKey key;
+    private PatternSet patterns;
+    private Logger logger;
+    private int threads;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException, GeneralSecurityException {
+        this.dir = Files.createTempDirectory("jarsigner-bench").toFile();
+        this.input = new File(this.dir, "input.jar");
+        this.output = new File(this.dir, "output.jar");
+
+        int size = "large".equals(this.entrySize) ? 8 * 1024 : 512;
+        BenchmarkJars.create(this.input, this.entries, size);
+        this.bytes = (long)this.entries * size;
+
+        File keyStore = BenchmarkJars.createKeyStore(this.dir);
+        this.key = SigningKey.load(Files.readAllBytes(keyStore.toPath()), "PKCS12", null, null, BenchmarkJars.PASSWORD, BenchmarkJars.ALIAS, BenchmarkJars.PASSWORD);
+
+        // A few patterns that match, and enough that don't to be a realistic list
+        this.patterns = new PatternSet();
+        if (this.excludes) {
+            this.patterns.exclude("**/*.txt", "**/doc/**", "net/example/pkg1/**", "net/example/pkg2?/**", "**/Entry1*.properties");
+            for (int x = 0; x < 10; x++)
+                this.patterns.exclude("generated" + x + "/**", "**/*.ext" + x);
+        }
+
+        this.logger = Logging.getLogger(SignBenchmark.class);
+        this.threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkJars.delete(this.dir);
+    }
+
+    /** End to end, from resolving the filters to the signed jar, without a timestamp. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public File sign() throws IOException, GeneralSecurityException {
+        Set<String> unsigned = SignTask.getUnsigned(this.input, this.patterns, new File(this.dir, "entries"));
+        Spec<String> filter = unsigned.isEmpty() ? null : name -> !unsigned.contains(name);
+        new JarSigner(this.key, BenchmarkJars.ALIAS, this.logger, false, this.threads, null, false).sign(this.input, this.output, filter, null, null);
+        return this.output;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[][] digest(Throughput counter) throws IOException, GeneralSecurityException {
+        try (ZipArchive zip = ZipArchive.open(this.input)) {
+            List<ZipArchive.Entry> files = new ArrayList<>(zip.getEntries().size());
+            for (ZipArchive.Entry entry : zip.getEntries()) {
+                if (!entry.isDirectory())
+                    files.add(entry);
+            }
+
+            byte[][] ret = new Digester(JarSigner.DEFAULT_DIGEST, this.threads).digest(zip, files);
+            counter.bytes += this.bytes;
+            return ret;
+        }
+    }
+
+    /** Copying every entry without recompressing it, which is how signed jars are written. */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public File rewrite(Throughput counter) throws IOException {
+        try (ZipArchive zip = ZipArchive.open(this.input);
+             ZipWriter out = new ZipWriter(this.output)) {
+            for (ZipArchive.Entry entry : zip.getEntries())
+                out.copy(zip, entry);
+            out.finish();
+        }
+        counter.bytes += this.bytes;
+        return this.output;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Set<String> filter() throws IOException {
+        return SignTask.getUnsigned(this.input, this.patterns, new File(this.dir, "entries"));
+    }
+
+    /** Uncompressed bytes processed, reported per second next to the operation rate. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Just enough of a DER reader to pull apart timestamp responses and signature blocks.
+ */
+final class Der {
+    private final byte[] data;
+    final int tag;
+    private final int start;
+    private final int offset;
+    private final int length;
+
+    private Der(byte[] data, int tag, int start, int offset, int length) {
+        this.data = data;
+        this.tag = tag;
+        this.start = start;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    static Der read(byte[] data, int pos) throws IOException {
+        if (pos + 2 > data.length)
+            throw new IOException("Truncated DER data");
+
+        int tag = data[pos] & 0xFF;
+        int length = data[pos + 1] & 0xFF;
+        int offset = pos + 2;
+        if (length == 0x80) {
+            throw new IOException("Indefinite length DER data is not supported");
+        } else if (length > 0x80) {
+            int bytes = length & 0x7F;
+            if (bytes > 3 || offset + bytes > data.length)
+                throw new IOException("Invalid DER length");
+            length = 0;
+            for (int x = 0; x < bytes; x++)
+                length = (length << 8) | (data[offset++] & 0xFF);
+        }
+
+        if (offset + length > data.length)
+            throw new IOException("Truncated DER data");
+        return new Der(data, tag, pos, offset, length);
+    }
+
+    Der expect(int tag) throws IOException {
+        if (this.tag != tag)
+            throw new IOException(String.format("Unexpected DER tag 0x%02X, expected 0x%02X", this.tag, tag));
+        return this;
+    }
+
+    List<Der> children() throws IOException {
+        List<Der> ret = new ArrayList<>();
+        for (int pos = this.offset, end = this.offset + this.length; pos < end; ) {
+            Der child = read(this.data, pos);
+            ret.add(child);
+            pos = child.offset + child.length;
+        }
+        return ret;
+    }
+
+    Der child(int index) throws IOException {
+        List<Der> children = children();
+        if (index >= children.size())
+            throw new IOException("Missing DER element " + index + " in tag " + String.format("0x%02X", this.tag));
+        return children.get(index);
+    }
+
+    byte[] value() {
+        return Arrays.copyOfRange(this.data, this.offset, this.offset + this.length);
+    }
+
+    byte[] encoded() {
+        return Arrays.copyOfRange(this.data, this.start, this.offset + this.length);
+    }
+
+    BigInteger integer() {
+        return new BigInteger(value());
+    }
+
+    /** Decodes a GeneralizedTime, which DER requires to be in UTC, like 20240131235959.5Z. */
+    Date time() throws IOException {
+        expect(Pkcs7.GENERALIZED_TIME);
+        String value = new String(value(), StandardCharsets.US_ASCII);
+        if (value.length() < 15 || !value.endsWith("Z"))
+            throw new IOException("Invalid GeneralizedTime: " + value);
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        try {
+            long millis = format.parse(value.substring(0, 14)).getTime();
+            // Fractions of a second are optional, and only go as far as they're needed
+            if (value.charAt(14) == '.')
+                millis += Math.round(Double.parseDouble("0" + value.substring(14, value.length() - 1)) * 1000);
+            return new Date(millis);
+        } catch (ParseException | NumberFormatException e) {
+            throw new IOException("Invalid GeneralizedTime: " + value, e);
+        }
+    }
+
+    /** Decodes an OBJECT IDENTIFIER into its dotted form. */
+    String oid() throws IOException {
+        expect(Pkcs7.OID);
+        StringBuilder ret = new StringBuilder();
+        long value = 0;
+        for (int x = this.offset; x < this.offset + this.length; x++) {
+            value = (value << 7) | (this.data[x] & 0x7F);
+            if ((this.data[x] & 0x80) == 0) {
+                if (ret.length() == 0) {
+                    int first = (int)Math.min(value / 40, 2);
+                    ret.append(first).append('.').append(value - first * 40);
+                } else {
+                    ret.append('.').append(value);
+                }
+                value = 0;
+            }
+        }
+        return ret.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Digests of the entries of a previously signed jar, keyed by name, CRC and size.
+ * Lets us skip digesting entries that haven't changed since the last time the jar was signed.
+ */
+final class DigestIndex {
+    private static final int MAGIC = 0x4A534449; // JSDI
+    private static final int VERSION = 1;
+
+    private final String algorithm;
+    private final Map<String, Cached> entries;
+
+    private DigestIndex(String algorithm, Map<String, Cached> entries) {
+        this.algorithm = algorithm;
+        this.entries = entries;
+    }
+
+    /** Loads the index, returning an empty one if it doesn't exist, is unreadable, or used a different digest algorithm. */
+    static DigestIndex load(File file, String algorithm) {
+        Map<String, Cached> entries = new HashMap<>();
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION && algorithm.equals(in.readUTF())) {
+                    int count = in.readInt();
+                    for (int x = 0; x < count; x++) {
+                        String name = in.readUTF();
+                        long crc = in.readLong();
+                        long size = in.readLong();
+                        byte[] digest = new byte[in.readUnsignedShort()];
+                        in.readFully(digest);
+                        entries.put(name, new Cached(crc, size, digest));
+                    }
+                }
+            } catch (IOException e) {
+                entries.clear();
+            }
+        }
+        return new DigestIndex(algorithm, entries);
+    }
+
+    /** Returns the digest of the entry if it has the same CRC and size as when it was last digested. */
+    byte[] get(ZipArchive.Entry entry) {
+        Cached cached = this.entries.get(entry.name);
+        return cached != null && cached.crc == entry.crc && cached.size == entry.size ? cached.digest : null;
+    }
+
+    /** Writes the digests of the given entries, replacing anything that was previously in the index. */
+    void save(File file, List<ZipArchive.Entry> entries, byte[][] digests) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(this.algorithm);
+            out.writeInt(entries.size());
+            for (int x = 0; x < digests.length; x++) {
+                ZipArchive.Entry entry = entries.get(x);
+                out.writeUTF(entry.name);
+                out.writeLong(entry.crc);
+                out.writeLong(entry.size);
+                out.writeShort(digests[x].length);
+                out.write(digests[x]);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static final class Cached {
+        private final long crc;
+        private final long size;
+        private final byte[] digest;
+
+        private Cached(long crc, long size, byte[] digest) {
+            this.crc = crc;
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+}
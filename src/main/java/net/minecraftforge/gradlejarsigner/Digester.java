@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the digests of zip entries. Large archives are spread over a pool of threads,
+ * each thread claims the next entry that hasn't been digested yet so uneven entry sizes balance out.
+ * Results are always returned in the same order as the entries.
+ */
+final class Digester {
+    // Below this there isn't enough work to be worth starting threads
+    private static final int MIN_ENTRIES_PER_THREAD = 64;
+    // Shared by every jar signed in this JVM so a build signing many jars doesn't start new threads for each one.
+    // Each digest call still only uses as many threads as it was configured with, idle threads exit on their own.
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "JarSigner Digest");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The JDK's own SHA implementations are the ones HotSpot replaces with intrinsics, using the CPU's SHA
+    // instructions where it has them. Providers registered ahead of it, like security libraries some builds
+    // add, are usually plain Java and much slower.
+    private static final Provider INTRINSIC = Security.getProvider("SUN");
+
+    private final String algorithm;
+    private final int threads;
+
+    Digester(String algorithm, int threads) {
+        this.algorithm = algorithm;
+        this.threads = Math.max(threads, 1);
+    }
+
+    byte[][] digest(ZipArchive zip, List<ZipArchive.Entry> entries) throws IOException, GeneralSecurityException {
+        byte[][] ret = new byte[entries.size()][];
+        run(Math.min(this.threads, entries.size() / MIN_ENTRIES_PER_THREAD), entries.size(), next -> digest(zip, entries, ret, next));
+        return ret;
+    }
+
+    /**
+     * Runs the work on up to the given number of threads from the shared pool, or on this one if that's 1 or less.
+     * Each thread claims the next index from the counter until it reaches the count.
+     */
+    static void run(int threads, int count, Work work) throws IOException, GeneralSecurityException {
+        AtomicInteger next = new AtomicInteger();
+        if (threads <= 1) {
+            work.run(next);
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(threads);
+        try {
+            for (int x = 0; x < threads; x++) {
+                futures.add(EXECUTOR.submit(() -> {
+                    try {
+                        work.run(next);
+                    } catch (Throwable t) {
+                        // Stop everyone else from picking up new items
+                        next.set(count);
+                        throw t;
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while signing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof GeneralSecurityException)
+                throw (GeneralSecurityException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            // Only matters if we failed, don't interrupt as that would close the archive's channel under the other threads
+            next.set(count);
+            for (Future<?> future : futures)
+                future.cancel(false);
+        }
+    }
+
+    private void digest(ZipArchive zip, List<ZipArchive.Entry> entries, byte[][] ret, AtomicInteger next) throws IOException, GeneralSecurityException {
+        MessageDigest md = newDigest(this.algorithm);
+        try (ZipArchive.Reader reader = new ZipArchive.Reader()) {
+            for (int x = next.getAndIncrement(); x < entries.size(); x = next.getAndIncrement()) {
+                zip.digest(entries.get(x), md, reader);
+                ret[x] = md.digest();
+            }
+        }
+    }
+
+    /** Prefers the JDK's implementation of the algorithm, which is intrinsified, over whatever provider is first. */
+    static MessageDigest newDigest(String algorithm) throws GeneralSecurityException {
+        if (INTRINSIC != null && INTRINSIC.getService("MessageDigest", algorithm) != null)
+            return MessageDigest.getInstance(algorithm, INTRINSIC);
+        return MessageDigest.getInstance(algorithm);
+    }
+
+    interface Work {
+        void run(AtomicInteger next) throws IOException, GeneralSecurityException;
+    }
+}
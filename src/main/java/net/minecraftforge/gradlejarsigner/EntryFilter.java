@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.util.PatternSet;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The includes and excludes of a {@link PatternSet}, compiled once and matched against entry names straight from
+ * the central directory. Matches the same files as {@link PatternSet#getAsSpec()}, which goes through Gradle's generic
+ * pattern matching for every entry. Custom specs still need a {@link FileTreeElement}, so they're only evaluated when
+ * the patterns didn't already decide.
+ */
+final class EntryFilter {
+    private final boolean caseSensitive;
+    private final @Nullable Matcher includes;
+    private final Matcher excludes;
+    private final List<Spec<FileTreeElement>> includeSpecs;
+    private final List<Spec<FileTreeElement>> excludeSpecs;
+    private final @Nullable File extractDir;
+
+    private EntryFilter(PatternSet patterns, @Nullable File extractDir) {
+        this.caseSensitive = patterns.isCaseSensitive();
+        this.includes = patterns.getIncludes().isEmpty() ? null : new Matcher(patterns.getIncludes(), this.caseSensitive);
+
+        // Gradle always applies Ant's default excludes, like **/.git/**
+        List<String> excludes = new ArrayList<>(patterns.getExcludes());
+        excludes.addAll(Arrays.asList(DirectoryScanner.getDefaultExcludes()));
+        this.excludes = new Matcher(excludes, this.caseSensitive);
+
+        this.includeSpecs = new ArrayList<>(patterns.getIncludeSpecs());
+        this.excludeSpecs = new ArrayList<>(patterns.getExcludeSpecs());
+        this.extractDir = extractDir;
+    }
+
+    /** For patterns without custom specs, which never need an entry's file. */
+    static EntryFilter of(PatternSet patterns) {
+        if (!patterns.getIncludeSpecs().isEmpty() || !patterns.getExcludeSpecs().isEmpty())
+            throw new IllegalArgumentException("Custom specs need a directory to extract entries to");
+        return new EntryFilter(patterns, null);
+    }
+
+    /** @param extractDir Where entries are extracted if a custom spec needs their file, shared by every entry */
+    static EntryFilter of(PatternSet patterns, File extractDir) {
+        return new EntryFilter(patterns, extractDir);
+    }
+
+    /** Returns true if the file entry should be signed. Directories are never signed, so they aren't handled. */
+    boolean isSatisfiedBy(ZipArchive zip, ZipArchive.Entry entry) {
+        String path = this.caseSensitive ? entry.name : entry.name.toLowerCase(Locale.ROOT);
+        FileTreeElement element = null;
+
+        boolean included = this.includes == null && this.includeSpecs.isEmpty();
+        if (!included && this.includes != null)
+            included = this.includes.matches(path);
+        for (int x = 0; !included && x < this.includeSpecs.size(); x++) {
+            if (element == null)
+                element = ZipEntryElement.create(zip, entry, Objects.requireNonNull(this.extractDir));
+            included = this.includeSpecs.get(x).isSatisfiedBy(element);
+        }
+
+        if (!included || this.excludes.matches(path))
+            return false;
+
+        for (Spec<FileTreeElement> spec : this.excludeSpecs) {
+            if (element == null)
+                element = ZipEntryElement.create(zip, entry, Objects.requireNonNull(this.extractDir));
+            if (spec.isSatisfiedBy(element))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A list of Ant style patterns. The common shapes are turned into hash lookups on the path, its directories,
+     * or its file name, and only the rest are matched segment by segment.
+     */
+    private static final class Matcher {
+        private final Set<String> paths = new HashSet<>();       // a/b/c.txt
+        private final Set<String> prefixes = new HashSet<>();    // a/b/**
+        private final Set<String> directories = new HashSet<>(); // **/b/**
+        private final Set<String> names = new HashSet<>();       // **/c.txt
+        private final Set<String> extensions = new HashSet<>();  // **/*.txt
+        private final List<String> globs = new ArrayList<>();    // **/*~
+        private final List<String[]> patterns = new ArrayList<>();
+
+        private Matcher(Collection<String> patterns, boolean caseSensitive) {
+            for (String pattern : patterns)
+                add(caseSensitive ? pattern : pattern.toLowerCase(Locale.ROOT));
+        }
+
+        private void add(String pattern) {
+            // Same as Gradle, a trailing slash matches everything under it
+            if (pattern.endsWith("/") || pattern.endsWith("\\"))
+                pattern += "**";
+
+            String[] parts = split(pattern.replace('\\', '/'));
+            int last = parts.length - 1;
+            if (parts.length == 0) // Only matches the root directory
+                return;
+
+            if (isLiteral(parts, 0, parts.length))
+                this.paths.add(String.join("/", parts));
+            else if (last > 0 && parts[last].equals("**") && isLiteral(parts, 0, last))
+                this.prefixes.add(String.join("/", Arrays.copyOf(parts, last)));
+            else if (parts.length == 3 && parts[0].equals("**") && parts[2].equals("**") && isLiteral(parts, 1, 2))
+                this.directories.add(parts[1]);
+            else if (parts.length == 2 && parts[0].equals("**") && isLiteral(parts, 1, 2))
+                this.names.add(parts[1]);
+            else if (parts.length == 2 && parts[0].equals("**") && parts[1].startsWith("*.") && parts[1].lastIndexOf('.') == 1 && isLiteral(parts[1].substring(1)))
+                this.extensions.add(parts[1].substring(1));
+            else if (parts.length == 2 && parts[0].equals("**") && !parts[1].equals("**"))
+                this.globs.add(parts[1]);
+            else
+                this.patterns.add(parts);
+        }
+
+        private boolean matches(String path) {
+            if (this.paths.contains(path))
+                return true;
+
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            if (this.names.contains(name))
+                return true;
+
+            int dot = name.lastIndexOf('.');
+            if (dot != -1 && this.extensions.contains(name.substring(dot)))
+                return true;
+
+            for (String glob : this.globs) {
+                if (matchesSegment(glob, name))
+                    return true;
+            }
+
+            // ** matches nothing as well, so the file itself counts as one of its directories
+            if (!this.prefixes.isEmpty() || !this.directories.isEmpty()) {
+                int start = 0;
+                while (start <= path.length()) {
+                    int end = path.indexOf('/', start);
+                    if (end == -1)
+                        end = path.length();
+                    if (this.prefixes.contains(path.substring(0, end)) || this.directories.contains(path.substring(start, end)))
+                        return true;
+                    start = end + 1;
+                }
+            }
+
+            if (this.patterns.isEmpty())
+                return false;
+
+            String[] segments = split(path);
+            for (String[] pattern : this.patterns) {
+                if (matches(pattern, 0, segments, 0))
+                    return true;
+            }
+            return false;
+        }
+
+        private static boolean matches(String[] pattern, int p, String[] path, int s) {
+            while (p < pattern.length) {
+                if (pattern[p].equals("**")) {
+                    if (p == pattern.length - 1)
+                        return true;
+                    for (int x = s; x <= path.length; x++) {
+                        if (matches(pattern, p + 1, path, x))
+                            return true;
+                    }
+                    return false;
+                }
+
+                if (s == path.length || !matchesSegment(pattern[p], path[s]))
+                    return false;
+                p++;
+                s++;
+            }
+            return s == path.length;
+        }
+
+        /** Glob match of a single path segment, where * is any number of characters and ? is exactly one. */
+        private static boolean matchesSegment(String pattern, String value) {
+            int p = 0, v = 0, star = -1, mark = 0;
+            while (v < value.length()) {
+                if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == value.charAt(v))) {
+                    p++;
+                    v++;
+                } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                    star = p++;
+                    mark = v;
+                } else if (star != -1) {
+                    p = star + 1;
+                    v = ++mark;
+                } else {
+                    return false;
+                }
+            }
+            while (p < pattern.length() && pattern.charAt(p) == '*')
+                p++;
+            return p == pattern.length();
+        }
+
+        private static boolean isLiteral(String[] parts, int start, int end) {
+            for (int x = start; x < end; x++) {
+                if (!isLiteral(parts[x]))
+                    return false;
+            }
+            return true;
+        }
+
+        private static boolean isLiteral(String part) {
+            return part.indexOf('*') == -1 && part.indexOf('?') == -1;
+        }
+
+        private static String[] split(String path) {
+            List<String> ret = new ArrayList<>();
+            int start = 0;
+            while (start <= path.length()) {
+                int end = path.indexOf('/', start);
+                if (end == -1)
+                    end = path.length();
+                if (end > start)
+                    ret.add(path.substring(start, end));
+                start = end + 1;
+            }
+            return ret.toArray(new String[0]);
+        }
+    }
+}
@@ -5,29 +5,79 @@
 package net.minecraftforge.gradlejarsigner;
 
 import java.io.File;
-import java.util.function.Consumer;
 
+import javax.inject.Inject;
+
+import org.gradle.api.DomainObjectCollection;
 import org.gradle.api.Project;
+import org.gradle.api.Transformer;
+import org.gradle.api.file.Directory;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.bundling.Zip;
+import org.gradle.language.base.plugins.LifecycleBasePlugin;
+import org.gradle.workers.WorkerExecutor;
 
 import groovy.lang.Closure;
 
 public class GradleJarSignerExtension {
     private final Project project;
-    private String alias;
-    private String storePass;
-    private String keyPass;
-    private String keyStoreData;
-    private File keyStoreFile;
-    private Boolean verbose;
-    private Boolean preserveLastModified;
-    private String tsaUrl;
-    private String storeType;
-    private String providerClass;
-    private String providerArg;
-
-    public GradleJarSignerExtension(Project project) {
+    private final WorkerExecutor workers;
+    // Package private because I intentionally don't want getters for key info. Tasks use them as conventions.
+    final Property<String> alias;
+    final Property<String> storePass;
+    final Property<String> keyPass;
+    final Property<String> keyStoreData;
+    final Property<File> keyStoreFile;
+    final Property<Boolean> verbose;
+    final Property<Boolean> preserveLastModified;
+    final Property<String> tsaUrl;
+    final Property<String> storeType;
+    final Property<String> providerClass;
+    final Property<String> providerArg;
+    final Property<Boolean> useAnt;
+    final Property<Integer> threads;
+    final Property<Boolean> incremental;
+    final Property<String> workerIsolation;
+    final Property<Integer> tsaTimeout;
+    final Property<Integer> tsaRetries;
+    final Property<File> tsaCache;
+    final Property<Boolean> reproducible;
+    final Property<String> digestAlg;
+    final Property<String> sigAlg;
+    final Property<File> agent;
+
+    @Inject
+    public GradleJarSignerExtension(Project project, WorkerExecutor workers) {
         this.project = project;
+        this.workers = workers;
+
+        ObjectFactory objs = project.getObjects();
+        this.alias = objs.property(String.class);
+        this.storePass = objs.property(String.class);
+        this.keyPass = objs.property(String.class);
+        this.keyStoreData = objs.property(String.class);
+        this.keyStoreFile = objs.property(File.class);
+        this.verbose = objs.property(Boolean.class);
+        this.preserveLastModified = objs.property(Boolean.class);
+        this.tsaUrl = objs.property(String.class);
+        this.storeType = objs.property(String.class);
+        this.providerClass = objs.property(String.class);
+        this.providerArg = objs.property(String.class);
+        this.useAnt = objs.property(Boolean.class);
+        this.threads = objs.property(Integer.class);
+        this.incremental = objs.property(Boolean.class);
+        this.workerIsolation = objs.property(String.class);
+        this.tsaTimeout = objs.property(Integer.class);
+        this.tsaRetries = objs.property(Integer.class);
+        this.tsaCache = objs.property(File.class);
+        this.reproducible = objs.property(Boolean.class);
+        this.digestAlg = objs.property(String.class);
+        this.sigAlg = objs.property(String.class);
+        this.agent = objs.property(File.class);
     }
 
     public SignTask sign(Zip task) {
@@ -38,6 +88,91 @@ public class GradleJarSignerExtension {
         return new SignTask(this, task, cfg);
     }
 
+    /**
+     * Signs every task in the collection, including ones that are added to it later.
+     * They all share the same configuration, so the keystore is only loaded once and
+     * the digest threads are reused between them.
+     * <p>
+     * Each archive is still signed by its own task, as soon as it's written. A single batch would have to wait for
+     * every archive, and couldn't be up to date or cached per archive. The setup that matters is shared anyway: keys
+     * are unlocked once per build by the {@link KeyCache} service, and every worker digests on the same thread pool.
+     *
+     * @param tasks Tasks to sign, for example {@code tasks.withType(Jar)}
+     */
+    public void signAll(DomainObjectCollection<? extends Zip> tasks) {
+        signAll(tasks, null);
+    }
+
+    /**
+     * Signs every task in the collection, including ones that are added to it later.
+     *
+     * @param tasks Tasks to sign
+     * @param cfg   Configuration applied to the {@link SignTask} of each task
+     */
+    public void signAll(DomainObjectCollection<? extends Zip> tasks, Closure<SignTask> cfg) {
+        tasks.all(task -> signCopy(task, cfg));
+    }
+
+    /**
+     * Signs every task in the list, sharing the same configuration.
+     *
+     * @param tasks Tasks to sign
+     */
+    public void signAll(Iterable<? extends Zip> tasks) {
+        signAll(tasks, null);
+    }
+
+    /**
+     * Signs every task in the list, sharing the same configuration.
+     *
+     * @param tasks Tasks to sign
+     * @param cfg   Configuration applied to the {@link SignTask} of each task
+     */
+    public void signAll(Iterable<? extends Zip> tasks, Closure<SignTask> cfg) {
+        for (Zip task : tasks)
+            signCopy(task, cfg);
+    }
+
+    /**
+     * Registers a task named {@code verify<Task>Signature} that checks the signatures of the task's archive.
+     * It is added to {@code check} when the project has one.
+     *
+     * @param task Task whose archive is verified
+     */
+    public TaskProvider<VerifyTask> verify(Zip task) {
+        return verify(task, null);
+    }
+
+    /**
+     * Registers a task named {@code verify<Task>Signature} that checks the signatures of the task's archive.
+     *
+     * @param task Task whose archive is verified
+     * @param cfg  Configuration applied to the {@link VerifyTask}
+     */
+    public TaskProvider<VerifyTask> verify(Zip task, Closure<VerifyTask> cfg) {
+        Project project = task.getProject();
+        String name = "verify" + Character.toUpperCase(task.getName().charAt(0)) + task.getName().substring(1) + "Signature";
+        TaskProvider<VerifyTask> ret = project.getTasks().register(name, VerifyTask.class, t -> {
+            t.setGroup(LifecycleBasePlugin.VERIFICATION_GROUP);
+            t.setDescription("Verifies the signatures of " + task.getName() + "'s archive");
+            t.getArchiveFile().set(task.getArchiveFile());
+            t.getReport().set(project.getLayout().getBuildDirectory().file("jarSigner/" + name + ".txt"));
+            t.getThreads().convention(this.threads);
+            if (cfg != null)
+                project.configure(t, cfg);
+        });
+        project.getPlugins().withType(LifecycleBasePlugin.class, p ->
+            project.getTasks().named(LifecycleBasePlugin.CHECK_TASK_NAME).configure(t -> t.dependsOn(ret))
+        );
+        return ret;
+    }
+
+    // Each SignTask sets itself as the closure's delegate, so they can't share the same instance
+    @SuppressWarnings("unchecked")
+    private SignTask signCopy(Zip task, Closure<SignTask> cfg) {
+        return new SignTask(this, task, cfg == null ? null : (Closure<SignTask>)cfg.clone());
+    }
+
     public void fromEnvironmentVariables() {
         fromEnvironmentVariables(project.getName());
     }
@@ -50,109 +185,234 @@ public class GradleJarSignerExtension {
         autoDetect(project.getName());
     }
 
+    /**
+     * Takes any setting that isn't set in the build script from Gradle properties or environment variables, looking for
+     * {@code prefix.NAME} before {@code NAME}. They're only read when a jar is signed.
+     * <p>
+     * Unlike older versions, values set in the build script win even when they're set before this is called, and extra
+     * properties ({@code ext}) aren't searched. Both would need reading every value while configuring, which stores
+     * them, passwords included, in the configuration cache.
+     *
+     * @param prefix Prefix of the more specific names, null to only use the plain ones
+     */
     public void autoDetect(String prefix) {
-        set(prefix, "SIGN_KEY_ALIAS", this::setAlias);
-        set(prefix, "SIGN_KEY_PASSWORD", this::setKeyPass);
-        set(prefix, "SIGN_KEYSTORE_PASSWORD", this::setStorePass);
-        set(prefix, "SIGN_KEYSTORE_DATA", this::setKeyStoreData);
-        set(prefix, "SIGN_VERBOSE", v -> this.setVerbose(Boolean.parseBoolean(v)));
-        set(prefix, "SIGN_PRESERVE_LAST_MODIFIED", v -> this.setPreserveLastModified(Boolean.parseBoolean(v)));
-        set(prefix, "SIGN_TSA_URL", this::setTsaUrl);
-        set(prefix, "SIGN_STORE_TYPE", this::setStoreType);
-        set(prefix, "SIGN_PROVIDER_CLASS", this::setProviderClass);
-        set(prefix, "SIGN_PROVIDER_ARG", this::setProviderArg);
+        Directory dir = this.project.getLayout().getProjectDirectory();
+        set(prefix, "SIGN_KEY_ALIAS", this.alias);
+        set(prefix, "SIGN_KEY_PASSWORD", this.keyPass);
+        set(prefix, "SIGN_KEYSTORE_PASSWORD", this.storePass);
+        set(prefix, "SIGN_KEYSTORE_DATA", this.keyStoreData);
+        set(prefix, "SIGN_VERBOSE", this.verbose, Boolean::valueOf);
+        set(prefix, "SIGN_PRESERVE_LAST_MODIFIED", this.preserveLastModified, Boolean::valueOf);
+        set(prefix, "SIGN_TSA_URL", this.tsaUrl);
+        set(prefix, "SIGN_TSA_TIMEOUT", this.tsaTimeout, Integer::valueOf);
+        set(prefix, "SIGN_TSA_RETRIES", this.tsaRetries, Integer::valueOf);
+        set(prefix, "SIGN_TSA_CACHE", this.tsaCache, v -> dir.file(v).getAsFile());
+        set(prefix, "SIGN_STORE_TYPE", this.storeType);
+        set(prefix, "SIGN_PROVIDER_CLASS", this.providerClass);
+        set(prefix, "SIGN_PROVIDER_ARG", this.providerArg);
+        set(prefix, "SIGN_USE_ANT", this.useAnt, Boolean::valueOf);
+        set(prefix, "SIGN_THREADS", this.threads, Integer::valueOf);
+        set(prefix, "SIGN_INCREMENTAL", this.incremental, Boolean::valueOf);
+        set(prefix, "SIGN_WORKER_ISOLATION", this.workerIsolation);
+        set(prefix, "SIGN_REPRODUCIBLE", this.reproducible, Boolean::valueOf);
+        set(prefix, "SIGN_DIGEST_ALG", this.digestAlg);
+        set(prefix, "SIGN_SIG_ALG", this.sigAlg);
+        set(prefix, "SIGN_AGENT", this.agent, v -> dir.file(v).getAsFile());
     }
 
     public void setAlias(String value) {
-        this.alias = value;
+        this.alias.set(value);
     }
 
     public void setStorePass(String value) {
-        this.storePass = value;
+        this.storePass.set(value);
+    }
+
+    /** Takes the keystore password from a provider, which is only read when a jar is signed and isn't stored in the configuration cache. */
+    public void setStorePass(Provider<String> value) {
+        this.storePass.set(value);
     }
 
     public void setKeyPass(String value) {
-        this.keyPass = value;
+        this.keyPass.set(value);
+    }
+
+    /** Takes the key password from a provider, see {@link #setStorePass(Provider)}. */
+    public void setKeyPass(Provider<String> value) {
+        this.keyPass.set(value);
     }
 
     /**
      * A base64 encode string containing the keystore data.
-     * This will be written to a temporary file and then deleted after the task is run.
+     * It is only kept in memory, unless signing with Ant which needs it written to a temporary file.
      *
      * @param value Base64 encode keystore
      */
     public void setKeyStoreData(String value) {
-        this.keyStoreData = value;
+        this.keyStoreData.set(value);
+    }
+
+    /** Takes the base64 encoded keystore from a provider, see {@link #setStorePass(Provider)}. */
+    public void setKeyStoreData(Provider<String> value) {
+        this.keyStoreData.set(value);
     }
 
     public void setKeyStoreFile(File value) {
-        this.keyStoreFile = value;
+        this.keyStoreFile.set(value);
     }
 
     public void setVerbose(boolean value) {
-        this.verbose = value;
+        this.verbose.set(value);
     }
 
     public void setPreserveLastModified(boolean value) {
-        this.preserveLastModified = value;
+        this.preserveLastModified.set(value);
     }
 
     public void setTsaUrl(String value) {
-        this.tsaUrl = value;
+        this.tsaUrl.set(value);
+    }
+
+    /**
+     * How long to wait for the timestamp authority to accept the connection and to respond.
+     * Defaults to 30 seconds.
+     *
+     * @param value Timeout in seconds
+     */
+    public void setTsaTimeout(int value) {
+        this.tsaTimeout.set(value);
+    }
+
+    /**
+     * How many times a timestamp request that failed because of a network or server error is retried.
+     * Each retry waits twice as long as the last one, starting at a second. Defaults to 3.
+     *
+     * @param value Number of retries, 0 to fail on the first error
+     */
+    public void setTsaRetries(int value) {
+        this.tsaRetries.set(value);
+    }
+
+    /**
+     * Directory to keep timestamp tokens in, keyed by the signature they were issued for.
+     * Signing identical content with a key that produces the same signature, like RSA, then reuses the token
+     * instead of asking the timestamp authority again.
+     *
+     * @param value Cache directory, unset to not cache tokens
+     */
+    public void setTsaCache(File value) {
+        this.tsaCache.set(value);
     }
 
     public void setStoreType(String value) {
-        this.storeType = value;
+        this.storeType.set(value);
     }
 
     public void setProviderClass(String value) {
-        this.providerClass = value;
+        this.providerClass.set(value);
     }
 
     public void setProviderArg(String value) {
-        this.providerArg = value;
-    }
-
-    // Package private because I intentionally don't want getters for key info.
-    void fill(SignTask task) {
-        if (this.alias != null)
-            task.setAlias(this.alias);
-        if (this.keyPass != null)
-            task.setKeyPass(this.keyPass);
-        if (this.storePass != null)
-            task.setStorePass(this.storePass);
-        if (this.keyStoreData != null)
-            task.setKeyStoreData(this.keyStoreData);
-        if (this.keyStoreFile != null)
-            task.setKeyStoreFile(this.keyStoreFile);
-        if (this.verbose != null)
-            task.setVerbose(this.verbose);
-        if (this.preserveLastModified != null)
-            task.setPreserveLastModified(this.preserveLastModified);
-        if (this.tsaUrl != null)
-            task.setTsaUrl(this.tsaUrl);
-        if (this.storeType != null)
-            task.setStoreType(this.storeType);
-        if (this.providerClass != null)
-            task.setProviderClass(this.providerClass);
-        if (this.providerArg != null)
-            task.setProviderArg(this.providerArg);
-    }
-
-    private void set(String prefix, String key, Consumer<String> prop) {
-        String data = null;
-        if (prefix != null) {
-            data = (String)project.findProperty(prefix + '.' + key);
-            if (data == null)
-                data = System.getenv(prefix + '.' + key);
-        }
-
-        if (data == null)
-            data = (String)project.findProperty(key);
-        if (data == null)
-            data = System.getenv(key);
-
-        if (data != null)
-            prop.accept(data);
+        this.providerArg.set(value);
+    }
+
+    /**
+     * Signs using Ant's signjar task instead of the built in signer.
+     *
+     * @param value True to use Ant
+     */
+    public void setUseAnt(boolean value) {
+        this.useAnt.set(value);
+    }
+
+    /**
+     * The number of threads used to digest the entries of large jars.
+     * Defaults to the number of available processors.
+     *
+     * @param value Number of threads, 1 to digest on the task's thread
+     */
+    public void setThreads(int value) {
+        this.threads.set(value);
+    }
+
+    /**
+     * Remembers the digest of every entry in the task's temporary directory, so that the next time
+     * the jar is signed only entries whose CRC or size changed have to be digested again.
+     *
+     * @param value True to reuse digests between runs
+     */
+    public void setIncremental(boolean value) {
+        this.incremental.set(value);
+    }
+
+    /**
+     * How the work item that signs the jar is isolated from the build.
+     * {@code none}, the default, runs it in the plugin's class loader and shares unlocked keys with other jars.
+     * {@code classloader} runs it in its own class loader, which has to load the keystore again.
+     *
+     * @param value Either {@code none} or {@code classloader}
+     */
+    public void setWorkerIsolation(String value) {
+        this.workerIsolation.set(value);
+    }
+
+    /**
+     * Makes signing deterministic, so the same jar and key always give the same signed jar.
+     * Entries and manifest sections are sorted by name, every entry gets the same constant time,
+     * and timestamp extra fields are removed. Only the native signer supports this, and the signature
+     * algorithm has to be deterministic, like RSA. A timestamp from a TSA will still differ.
+     *
+     * @param value True to produce reproducible jars
+     */
+    public void setReproducible(boolean value) {
+        this.reproducible.set(value);
+    }
+
+    /**
+     * The digest algorithm used for entries, the manifest and the signature file, like jarsigner's {@code -digestalg}.
+     * Defaults to SHA-256. SHA-512 is usually faster on 64-bit machines without SHA instructions in the CPU.
+     *
+     * @param value Either {@code SHA-256}, {@code SHA-384} or {@code SHA-512}
+     */
+    public void setDigestAlg(String value) {
+        this.digestAlg.set(value);
+    }
+
+    /**
+     * The signature algorithm, like jarsigner's {@code -sigalg}. It has to fit the key, for example
+     * {@code SHA512withRSA} for RSA keys or {@code Ed25519} for EdDSA ones. Defaults to one combining the key's
+     * type with the digest algorithm.
+     *
+     * @param value Signature algorithm name
+     */
+    public void setSigAlg(String value) {
+        this.sigAlg.set(value);
+    }
+
+    /**
+     * Signs with keys held by a {@link SignAgent} instead of loading a keystore, so only the alias is needed.
+     * For RSA and EC keys only the digest of the signature file is sent to the agent. Signers with their own keystore still use it.
+     *
+     * @param value File the agent wrote when it started, {@code ~/.gradle/jarSigner/agent.properties} unless it was given another
+     */
+    public void setAgent(File value) {
+        this.agent.set(value);
+    }
+
+    WorkerExecutor getWorkers() {
+        return this.workers;
+    }
+
+    private void set(String prefix, String key, Property<String> prop) {
+        set(prefix, key, prop, v -> v);
+    }
+
+    // Lazy so the configuration cache only tracks the properties and variables, and values set in the build script win
+    private <T> void set(String prefix, String key, Property<T> prop, Transformer<T, String> map) {
+        ProviderFactory providers = this.project.getProviders();
+        Provider<String> data = providers.gradleProperty(key).orElse(providers.environmentVariable(key));
+        if (prefix != null)
+            data = providers.gradleProperty(prefix + '.' + key).orElse(providers.environmentVariable(prefix + '.' + key)).orElse(data);
+        prop.convention(data.map(map));
     }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds the manifest and signature file of a signed jar.
+ * We write the bytes ourselves instead of using {@link java.util.jar.Manifest}
+ * because the signature file needs digests of the exact bytes of every section.
+ */
+final class JarManifest {
+    private static final byte[] NEWLINE = { '\r', '\n' };
+    private static final int MAX_LINE = 72;
+
+    private final String digestAlgorithm;
+    private final String digestAttribute;
+    private final byte[] main;
+    private final Map<String, Section> sections = new LinkedHashMap<>();
+
+    private byte[] manifest;
+    private final List<String> names = new ArrayList<>();
+    private final List<int[]> ranges = new ArrayList<>();
+
+    /**
+     * @param existing        Raw bytes of the jar's current manifest, or null if it doesn't have one
+     * @param digestAlgorithm Name of the {@link MessageDigest} algorithm used for entries
+     * @param createdBy       Value of the Created-By attribute for newly created files
+     */
+    JarManifest(byte[] existing, String digestAlgorithm, String createdBy) {
+        this.digestAlgorithm = digestAlgorithm;
+        this.digestAttribute = digestAlgorithm + "-Digest";
+
+        Section main = new Section(null);
+        main.set("Manifest-Version", "1.0");
+        if (existing == null)
+            main.set("Created-By", createdBy);
+        else
+            parse(existing, main);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        main.write(out);
+        this.main = out.toByteArray();
+    }
+
+    /** Sets the digest of a jar entry, adding a section for it if needed. */
+    void put(String name, byte[] digest) {
+        Section section = this.sections.computeIfAbsent(name, Section::new);
+        section.set(this.digestAttribute, Base64.getEncoder().encodeToString(digest));
+        this.manifest = null;
+    }
+
+    /** Orders the named sections by name, so the manifest doesn't depend on the order of the original one. */
+    void sortSections() {
+        Map<String, Section> sorted = new TreeMap<>(this.sections);
+        this.sections.clear();
+        this.sections.putAll(sorted);
+        this.manifest = null;
+    }
+
+    byte[] getManifest() {
+        if (this.manifest == null) {
+            this.names.clear();
+            this.ranges.clear();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(this.main.length + this.sections.size() * 100);
+            out.write(this.main, 0, this.main.length);
+            for (Section section : this.sections.values()) {
+                int start = out.size();
+                section.write(out);
+                this.names.add(section.name);
+                this.ranges.add(new int[] { start, out.size() - start });
+            }
+            this.manifest = out.toByteArray();
+        }
+        return this.manifest;
+    }
+
+    /** Builds the .SF file matching the current manifest. */
+    byte[] getSignatureFile(String createdBy) throws NoSuchAlgorithmException {
+        byte[] manifest = getManifest();
+        MessageDigest md = MessageDigest.getInstance(this.digestAlgorithm);
+        Base64.Encoder b64 = Base64.getEncoder();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(manifest.length);
+        writeLine(out, "Signature-Version: 1.0");
+        writeLine(out, "Created-By: " + createdBy);
+        writeLine(out, this.digestAlgorithm + "-Digest-Manifest: " + b64.encodeToString(md.digest(manifest)));
+        md.update(manifest, 0, this.main.length);
+        writeLine(out, this.digestAlgorithm + "-Digest-Manifest-Main-Attributes: " + b64.encodeToString(md.digest()));
+        out.write(NEWLINE, 0, NEWLINE.length);
+
+        for (int x = 0; x < this.names.size(); x++) {
+            int[] range = this.ranges.get(x);
+            md.update(manifest, range[0], range[1]);
+            writeLine(out, "Name: " + this.names.get(x));
+            writeLine(out, this.digestAttribute + ": " + b64.encodeToString(md.digest()));
+            out.write(NEWLINE, 0, NEWLINE.length);
+        }
+        return out.toByteArray();
+    }
+
+    /** Splits an existing manifest into sections, the main section is rewritten the same way jarsigner does. */
+    private void parse(byte[] data, Section main) {
+        List<List<String>> sections = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int x = 0;
+        while (x <= data.length) {
+            if (x == data.length || data[x] == '\r' || data[x] == '\n') {
+                int end = x;
+                if (x < data.length && data[x] == '\r' && x + 1 < data.length && data[x + 1] == '\n')
+                    x++;
+                x++;
+
+                if (end != start) {
+                    String line = new String(data, start, end - start, StandardCharsets.UTF_8);
+                    if (line.startsWith(" ") && !lines.isEmpty())
+                        lines.set(lines.size() - 1, lines.get(lines.size() - 1) + line.substring(1));
+                    else
+                        lines.add(line);
+                } else if (!lines.isEmpty() || sections.isEmpty()) {
+                    sections.add(lines);
+                    lines = new ArrayList<>();
+                }
+                start = x;
+            } else {
+                x++;
+            }
+        }
+        if (!lines.isEmpty())
+            sections.add(lines);
+
+        for (int idx = 0; idx < sections.size(); idx++) {
+            Section section = idx == 0 ? main : null;
+            for (String line : sections.get(idx)) {
+                int split = line.indexOf(": ");
+                if (split == -1)
+                    continue;
+                String key = line.substring(0, split);
+                String value = line.substring(split + 2);
+                if (section == null) {
+                    if (!"Name".equalsIgnoreCase(key))
+                        break;
+                    section = this.sections.computeIfAbsent(value, Section::new);
+                } else {
+                    section.set(key, value);
+                }
+            }
+        }
+    }
+
+    private static void writeLine(ByteArrayOutputStream out, String line) {
+        byte[] data = line.getBytes(StandardCharsets.UTF_8);
+        if (data.length <= MAX_LINE) {
+            out.write(data, 0, data.length);
+        } else {
+            // Wrap on character boundaries so multi-byte characters are never split
+            int length = 0;
+            for (int x = 0; x < line.length(); ) {
+                int chars = Character.charCount(line.codePointAt(x));
+                byte[] chr = line.substring(x, x + chars).getBytes(StandardCharsets.UTF_8);
+                if (length + chr.length > MAX_LINE) {
+                    out.write(NEWLINE, 0, NEWLINE.length);
+                    out.write(' ');
+                    length = 1;
+                }
+                out.write(chr, 0, chr.length);
+                length += chr.length;
+                x += chars;
+            }
+        }
+        out.write(NEWLINE, 0, NEWLINE.length);
+    }
+
+    private static class Section {
+        private final String name;
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+
+        private Section(String name) {
+            this.name = name;
+        }
+
+        private void set(String key, String value) {
+            for (String existing : this.attributes.keySet()) {
+                if (existing.equalsIgnoreCase(key)) {
+                    key = existing;
+                    break;
+                }
+            }
+            this.attributes.put(key, value);
+        }
+
+        private void write(ByteArrayOutputStream out) {
+            if (this.name != null)
+                writeLine(out, "Name: " + this.name);
+            for (Map.Entry<String, String> entry : this.attributes.entrySet())
+                writeLine(out, entry.getKey() + ": " + entry.getValue());
+            out.write(NEWLINE, 0, NEWLINE.length);
+        }
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.specs.Spec;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * In process replacement for Ant's signjar task.
+ * Produces the same manifest, signature file, and signature block that jarsigner does.
+ * Signing with several keys digests the entries and writes the jar once, with a signature file and block for each key.
+ */
+final class JarSigner {
+    static final String MANIFEST = "META-INF/MANIFEST.MF";
+    static final String DEFAULT_DIGEST = "SHA-256";
+    private static final String CREATED_BY = System.getProperty("java.version") + " (" + System.getProperty("java.vendor") + ")";
+    // The JDK that happens to run the build shouldn't change the output
+    private static final String CREATED_BY_REPRODUCIBLE = "GradleJarSigner";
+
+    private static final Comparator<ZipArchive.Entry> BY_NAME = Comparator.comparing(e -> e.name);
+
+    private final List<SigningKey> keys = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<SignatureAlgorithm> algorithms = new ArrayList<>();
+    private final String digest;
+    private final Logger logger;
+    private final boolean verbose;
+    private final int threads;
+    private final Digester digester;
+    private final @Nullable TsaClient tsa;
+    private final boolean reproducible;
+
+    /**
+     * @param threads      Number of threads used to digest entries
+     * @param tsa          Used to timestamp the signature, null to not timestamp it
+     * @param reproducible Sorts entries and manifest sections by name, and uses constant times and a constant Created-By,
+     *                     so the same input and key always produce the same jar. Apart from the timestamp, and signature
+     *                     algorithms like ECDSA that are randomized.
+     */
+    JarSigner(SigningKey key, String alias, Logger logger, boolean verbose, int threads, @Nullable TsaClient tsa, boolean reproducible) {
+        this(Collections.singletonMap(alias, key), logger, verbose, threads, tsa, reproducible, DEFAULT_DIGEST, Collections.emptyMap());
+    }
+
+    /**
+     * @param keys   Keys to sign with by their alias, in the order their signature files are written
+     * @param digest Algorithm used to digest entries and the manifest, SHA-256, SHA-384 or SHA-512
+     * @param sigAlgs Signature algorithms like SHA512withECDSA or Ed25519 by alias, which have to fit their key.
+     *                Keys without one pick it from their type and the digest algorithm.
+     */
+    JarSigner(Map<String, SigningKey> keys, Logger logger, boolean verbose, int threads, @Nullable TsaClient tsa, boolean reproducible, String digest, Map<String, String> sigAlgs) {
+        if (keys.isEmpty())
+            throw new IllegalArgumentException("At least one key is needed to sign a jar");
+        SignatureAlgorithm.getDigestOid(digest);
+        for (Map.Entry<String, SigningKey> entry : keys.entrySet()) {
+            String name = getSignatureName(entry.getKey());
+            for (String existing : this.names) {
+                if (existing.equalsIgnoreCase(name))
+                    throw new IllegalArgumentException("Alias '" + entry.getKey() + "' would use the same signature file as another signer: META-INF/" + name + ".SF");
+            }
+            this.names.add(name);
+            this.keys.add(entry.getValue());
+            this.algorithms.add(SignatureAlgorithm.of(entry.getKey(), entry.getValue(), digest, sigAlgs.get(entry.getKey())));
+        }
+        this.digest = digest;
+        this.logger = logger;
+        this.verbose = verbose;
+        this.threads = Math.max(threads, 1);
+        this.digester = new Digester(digest, threads);
+        this.tsa = tsa;
+        this.reproducible = reproducible;
+    }
+
+    /** Same keys and settings as the parent, used for nested archives. */
+    private JarSigner(JarSigner parent, int threads) {
+        this.keys.addAll(parent.keys);
+        this.names.addAll(parent.names);
+        this.algorithms.addAll(parent.algorithms);
+        this.digest = parent.digest;
+        this.logger = parent.logger;
+        this.verbose = false;
+        this.threads = threads;
+        this.digester = new Digester(parent.digest, threads);
+        this.tsa = parent.tsa;
+        this.reproducible = parent.reproducible;
+    }
+
+    /**
+     * Signs the input jar. Entries are inflated once to be digested, and then copied to the output
+     * without being recompressed, so the manifest and signature files can still be the first entries.
+     * If the input is already signed by every key over the same digests, it's copied as is.
+     *
+     * @param filter Names of the entries that should be signed, null to sign everything.
+     *               Entries that don't match are still copied, but are not listed in the manifest.
+     * @param index  File used to remember entry digests between runs, null to always digest everything.
+     * @param nested Archives inside the jar that are signed first, including ones nested in those. Null to sign none.
+     * @return How long each phase took
+     */
+    SignReport sign(File input, File output, @Nullable Spec<String> filter, @Nullable File index, @Nullable EntryFilter nested) throws IOException, GeneralSecurityException {
+        SignReport report = new SignReport(output.getName());
+        long start = System.nanoTime();
+
+        try (ZipArchive zip = ZipArchive.open(input)) {
+            Signed signed = prepare(zip, filter, index, nested, report);
+
+            long phase = System.nanoTime();
+            if (signed == null) {
+                this.logger.info("{} is already signed by {}, skipping", output.getName(), String.join(", ", this.names));
+                Files.copy(input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                report.skipped = true;
+            } else {
+                try (ZipWriter out = new ZipWriter(output, this.reproducible)) {
+                    signed.write(zip, out);
+                }
+            }
+            report.write = System.nanoTime() - phase;
+            report.writtenBytes = output.length();
+        }
+
+        report.total = System.nanoTime() - start;
+        return report;
+    }
+
+    /** Signs an archive held in memory, returns null if it's already signed. */
+    private @Nullable byte[] sign(String name, byte[] input, EntryFilter nested) throws IOException, GeneralSecurityException {
+        try (ZipArchive zip = ZipArchive.open(input, name)) {
+            Signed signed = prepare(zip, null, null, nested, new SignReport(name));
+            if (signed == null)
+                return null;
+
+            ByteArrayOutputStream ret = new ByteArrayOutputStream(input.length + signed.getSize());
+            try (ZipWriter out = new ZipWriter(ret, this.reproducible)) {
+                signed.write(zip, out);
+            }
+            return ret.toByteArray();
+        }
+    }
+
+    /** Builds the manifest, signature file and blocks, returns null if the archive is already signed. */
+    private @Nullable Signed prepare(ZipArchive zip, @Nullable Spec<String> filter, @Nullable File index, @Nullable EntryFilter nested, SignReport report) throws IOException, GeneralSecurityException {
+        ZipArchive.Entry mf = zip.getEntry(MANIFEST);
+        String createdBy = this.reproducible ? CREATED_BY_REPRODUCIBLE : CREATED_BY;
+        JarManifest manifest = new JarManifest(mf == null ? null : zip.readAll(mf), this.digest, createdBy);
+
+        long phase = System.nanoTime();
+        List<ZipArchive.Entry> entries = new ArrayList<>(zip.getEntries().size());
+        List<ZipArchive.Entry> signed = new ArrayList<>(zip.getEntries().size());
+        for (ZipArchive.Entry entry : zip.getEntries()) {
+            String name = entry.name;
+            if (name.equalsIgnoreCase(MANIFEST) || isOwnFile(name))
+                continue;
+            entries.add(entry);
+
+            if (!entry.isDirectory() && !isSignatureRelated(name) && (filter == null || filter.isSatisfiedBy(name)))
+                signed.add(entry);
+        }
+
+        if (this.reproducible) {
+            entries.sort(BY_NAME);
+            signed.sort(BY_NAME);
+        }
+        report.entries = zip.getEntries().size();
+        report.signed = signed.size();
+        report.filter = System.nanoTime() - phase;
+
+        // Only the signature files are read to check the existing signatures, so the entries are only compared against them if those match
+        List<String[]> existing = getSignedDigests(zip, createdBy, signed);
+
+        Map<ZipArchive.Entry, byte[]> changed = nested == null ? Collections.emptyMap() : signNested(zip, entries, nested, report);
+
+        phase = System.nanoTime();
+        byte[][] digests = digest(zip, signed, changed, index, report);
+        report.digest = System.nanoTime() - phase;
+
+        if (existing != null && changed.isEmpty() && isSignedByAll(existing, digests))
+            return null;
+
+        for (int x = 0; x < digests.length; x++) {
+            String name = signed.get(x).name;
+            manifest.put(name, digests[x]);
+            if (this.verbose)
+                this.logger.lifecycle("   signing: " + name);
+        }
+
+        if (this.reproducible)
+            manifest.sortSections();
+        Signed ret = new Signed(entries, changed, mf == null ? System.currentTimeMillis() : mf.getTime(), manifest.getManifest(), manifest.getSignatureFile(createdBy));
+
+        // Every signer signs the same signature file, only the block differs
+        for (int x = 0; x < this.keys.size(); x++) {
+            SigningKey key = this.keys.get(x);
+            SignatureAlgorithm alg = this.algorithms.get(x);
+
+            phase = System.nanoTime();
+            byte[] signature = key.sign(alg.signature, alg.digestOid, ret.signatureFile);
+            report.signature += System.nanoTime() - phase;
+
+            phase = System.nanoTime();
+            byte[] timestamp = this.tsa == null ? null : this.tsa.timestamp(signature);
+            report.timestamp += System.nanoTime() - phase;
+
+            ret.signatureNames.add("META-INF/" + this.names.get(x) + ".SF");
+            ret.blockNames.add("META-INF/" + this.names.get(x) + '.' + alg.extension);
+            ret.blocks.add(Pkcs7.signedData(Pkcs7.algorithm(alg.digestOid, false), Pkcs7.algorithm(alg.encryptionOid, alg.nullParams), key.chain, signature, timestamp));
+        }
+        report.peakBufferedBytes = ret.getSize();
+        return ret;
+    }
+
+    /**
+     * Signs the archives in the jar that match the filter, spread over the digest threads. They're read into memory
+     * and signed there, so no temporary files are needed. Returns the new data of the ones that weren't already signed.
+     */
+    private Map<ZipArchive.Entry, byte[]> signNested(ZipArchive zip, List<ZipArchive.Entry> entries, EntryFilter nested, SignReport report) throws IOException, GeneralSecurityException {
+        List<ZipArchive.Entry> archives = new ArrayList<>();
+        for (ZipArchive.Entry entry : entries) {
+            if (!entry.isDirectory() && !isSignatureRelated(entry.name) && nested.isSatisfiedBy(zip, entry))
+                archives.add(entry);
+        }
+        if (archives.isEmpty())
+            return Collections.emptyMap();
+
+        long start = System.nanoTime();
+        // Nested archives are usually small, so each one is signed on a single thread and they run side by side
+        JarSigner signer = new JarSigner(this, 1);
+        byte[][] data = new byte[archives.size()][];
+        Digester.run(Math.min(this.threads, archives.size()), archives.size(), next -> {
+            for (int x = next.getAndIncrement(); x < archives.size(); x = next.getAndIncrement()) {
+                ZipArchive.Entry entry = archives.get(x);
+                data[x] = signer.sign(entry.name, zip.readAll(entry), nested);
+                if (this.verbose)
+                    this.logger.lifecycle("   signing nested: " + entry.name + (data[x] == null ? " (already signed)" : ""));
+            }
+        });
+
+        Map<ZipArchive.Entry, byte[]> ret = new HashMap<>();
+        for (int x = 0; x < data.length; x++) {
+            if (data[x] != null)
+                ret.put(archives.get(x), data[x]);
+        }
+        report.nestedArchives += archives.size();
+        report.nested += System.nanoTime() - start;
+        return ret;
+    }
+
+    /** Digests the entries, using the new data of the nested archives that were signed. Those are never put in the index. */
+    private byte[][] digest(ZipArchive zip, List<ZipArchive.Entry> entries, Map<ZipArchive.Entry, byte[]> changed, @Nullable File index, SignReport report) throws IOException, GeneralSecurityException {
+        if (changed.isEmpty())
+            return digest(zip, entries, index, report);
+
+        List<ZipArchive.Entry> unchanged = new ArrayList<>(entries.size());
+        for (ZipArchive.Entry entry : entries) {
+            if (!changed.containsKey(entry))
+                unchanged.add(entry);
+        }
+
+        byte[][] digests = digest(zip, unchanged, index, report);
+        byte[][] ret = new byte[entries.size()][];
+        MessageDigest md = Digester.newDigest(this.digest);
+        for (int x = 0, y = 0; x < ret.length; x++) {
+            byte[] data = changed.get(entries.get(x));
+            if (data == null) {
+                ret[x] = digests[y++];
+            } else {
+                ret[x] = md.digest(data);
+                report.digested++;
+                report.digestedBytes += data.length;
+            }
+        }
+        return ret;
+    }
+
+    private byte[][] digest(ZipArchive zip, List<ZipArchive.Entry> entries, @Nullable File index, SignReport report) throws IOException, GeneralSecurityException {
+        if (index == null) {
+            addDigested(report, entries);
+            return this.digester.digest(zip, entries);
+        }
+
+        DigestIndex cache = DigestIndex.load(index, this.digest);
+        byte[][] ret = new byte[entries.size()][];
+        List<ZipArchive.Entry> missing = new ArrayList<>();
+        for (int x = 0; x < ret.length; x++) {
+            ret[x] = cache.get(entries.get(x));
+            if (ret[x] == null)
+                missing.add(entries.get(x));
+        }
+
+        this.logger.info("Reusing {} of {} entry digests", ret.length - missing.size(), ret.length);
+        addDigested(report, missing);
+        byte[][] digests = this.digester.digest(zip, missing);
+        for (int x = 0, y = 0; x < ret.length; x++) {
+            if (ret[x] == null)
+                ret[x] = digests[y++];
+        }
+
+        cache.save(index, entries, ret);
+        return ret;
+    }
+
+    private static void addDigested(SignReport report, List<ZipArchive.Entry> entries) {
+        report.digested += entries.size();
+        for (ZipArchive.Entry entry : entries)
+            report.digestedBytes += entry.size;
+    }
+
+    /** The manifest digests of the entries for every signer, or null if the jar isn't signed by all of them. */
+    private @Nullable List<String[]> getSignedDigests(ZipArchive zip, String createdBy, List<ZipArchive.Entry> signed) throws IOException {
+        List<String[]> ret = new ArrayList<>(this.keys.size());
+        for (int x = 0; x < this.keys.size(); x++) {
+            SignatureAlgorithm alg = this.algorithms.get(x);
+            String[] digests = JarVerifier.getSignedDigests(zip, this.names.get(x), this.keys.get(x).chain[0], alg.digestOid, alg.encryptionOid, createdBy, this.tsa != null, this.digest, signed);
+            if (digests == null)
+                return null;
+            ret.add(digests);
+        }
+        return ret;
+    }
+
+    private static boolean isSignedByAll(List<String[]> existing, byte[][] digests) {
+        for (String[] signed : existing) {
+            for (int x = 0; x < digests.length; x++) {
+                if (!Base64.getEncoder().encodeToString(digests[x]).equals(signed[x]))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /** Signature files and blocks of any of our signers, which are replaced */
+    private boolean isOwnFile(String name) {
+        int idx = name.lastIndexOf('.');
+        if (idx == -1 || !isSignatureRelated(name))
+            return false;
+        String base = name.substring(0, idx);
+        for (String own : this.names) {
+            if (base.equalsIgnoreCase("META-INF/" + own))
+                return true;
+        }
+        return false;
+    }
+
+    /** Files that are part of a jar signature and so are not signed themselves, matches the JDK's JarVerifier. */
+    static boolean isSignatureRelated(String name) {
+        String upper = name.toUpperCase(Locale.ENGLISH);
+        if (!upper.startsWith("META-INF/") || upper.indexOf('/', 9) != -1)
+            return false;
+        return upper.equals(MANIFEST) ||
+               upper.endsWith(".SF") ||
+               upper.endsWith(".DSA") ||
+               upper.endsWith(".RSA") ||
+               upper.endsWith(".EC") ||
+               upper.startsWith("META-INF/SIG-");
+    }
+
+    /** Same rules jarsigner uses to turn an alias into the name of the signature file. */
+    static String getSignatureName(String alias) {
+        StringBuilder ret = new StringBuilder(8);
+        for (int x = 0; x < alias.length() && x < 8; x++) {
+            char c = alias.charAt(x);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_')
+                ret.append(Character.toUpperCase(c));
+            else
+                ret.append('_');
+        }
+        return ret.toString();
+    }
+
+    /** Everything that's written to a signed archive. */
+    private static final class Signed {
+        private final List<ZipArchive.Entry> entries;
+        private final Map<ZipArchive.Entry, byte[]> changed;
+        private final long time;
+        private final byte[] manifest;
+        private final byte[] signatureFile;
+        private final List<String> signatureNames = new ArrayList<>();
+        private final List<String> blockNames = new ArrayList<>();
+        private final List<byte[]> blocks = new ArrayList<>();
+
+        private Signed(List<ZipArchive.Entry> entries, Map<ZipArchive.Entry, byte[]> changed, long time, byte[] manifest, byte[] signatureFile) {
+            this.entries = entries;
+            this.changed = changed;
+            this.time = time;
+            this.manifest = manifest;
+            this.signatureFile = signatureFile;
+        }
+
+        private void write(ZipArchive zip, ZipWriter out) throws IOException {
+            out.write(MANIFEST, this.time, this.manifest);
+            for (int x = 0; x < this.blocks.size(); x++) {
+                out.write(this.signatureNames.get(x), this.time, this.signatureFile);
+                out.write(this.blockNames.get(x), this.time, this.blocks.get(x));
+            }
+            for (ZipArchive.Entry entry : this.entries) {
+                byte[] data = this.changed.get(entry);
+                if (data == null)
+                    out.copy(zip, entry);
+                else
+                    out.replace(entry, data);
+            }
+            out.finish();
+        }
+
+        /** Bytes held in memory until the archive is written. */
+        private int getSize() {
+            long ret = this.manifest.length + this.signatureFile.length;
+            for (byte[] block : this.blocks)
+                ret += block.length;
+            for (byte[] data : this.changed.values())
+                ret += data.length;
+            return (int)Math.min(ret, Integer.MAX_VALUE);
+        }
+    }
+
+    private static final class SignatureAlgorithm {
+        private final String signature;
+        private final String digestOid;
+        private final String encryptionOid;
+        private final boolean nullParams;
+        private final String extension;
+
+        private SignatureAlgorithm(String signature, String digestOid, String encryptionOid, boolean nullParams, String extension) {
+            this.signature = signature;
+            this.digestOid = digestOid;
+            this.encryptionOid = encryptionOid;
+            this.nullParams = nullParams;
+            this.extension = extension;
+        }
+
+        private static SignatureAlgorithm of(String alias, SigningKey key, String digest, @Nullable String sigAlg) {
+            String type = key.getType();
+            if ("Ed25519".equals(type)) {
+                if (sigAlg != null && !sigAlg.equalsIgnoreCase("Ed25519") && !sigAlg.equalsIgnoreCase("EdDSA"))
+                    throw new IllegalArgumentException("Signature algorithm " + sigAlg + " can not be used with " + alias + "'s Ed25519 key");
+                // RFC 8419, Ed25519 signers always use SHA-512. jarsigner puts EdDSA signatures in .EC files
+                return new SignatureAlgorithm("Ed25519", getDigestOid("SHA-512"), SigningKey.OID_ED25519, false, "EC");
+            }
+
+            String name = type.equals("EC") ? "ECDSA" : type;
+            String hash = digest.replace("-", "");
+            if (sigAlg != null) {
+                int idx = sigAlg.toUpperCase(Locale.ENGLISH).indexOf("WITH");
+                if (idx == -1 || !sigAlg.substring(idx + 4).equalsIgnoreCase(name))
+                    throw new IllegalArgumentException("Signature algorithm " + sigAlg + " can not be used with " + alias + "'s " + type + " key");
+                hash = sigAlg.substring(0, idx).toUpperCase(Locale.ENGLISH);
+            }
+
+            String digestOid = getDigestOid(hash.replace("SHA", "SHA-"));
+            String signature = hash + "with" + name;
+            switch (type + '/' + hash) {
+                case "RSA/SHA256": case "RSA/SHA384": case "RSA/SHA512":
+                    return new SignatureAlgorithm(signature, digestOid, "1.2.840.113549.1.1.1", true, "RSA");
+                case "EC/SHA256":  return new SignatureAlgorithm(signature, digestOid, "1.2.840.10045.4.3.2",    false, "EC");
+                case "EC/SHA384":  return new SignatureAlgorithm(signature, digestOid, "1.2.840.10045.4.3.3",    false, "EC");
+                case "EC/SHA512":  return new SignatureAlgorithm(signature, digestOid, "1.2.840.10045.4.3.4",    false, "EC");
+                case "DSA/SHA256": return new SignatureAlgorithm(signature, digestOid, "2.16.840.1.101.3.4.3.2", false, "DSA");
+                case "DSA/SHA384": return new SignatureAlgorithm(signature, digestOid, "2.16.840.1.101.3.4.3.3", false, "DSA");
+                case "DSA/SHA512": return new SignatureAlgorithm(signature, digestOid, "2.16.840.1.101.3.4.3.4", false, "DSA");
+                default: throw new IllegalArgumentException("Unsupported signature algorithm " + signature + " for " + alias);
+            }
+        }
+
+        private static String getDigestOid(String digest) {
+            switch (digest) {
+                case "SHA-256": return "2.16.840.1.101.3.4.2.1";
+                case "SHA-384": return "2.16.840.1.101.3.4.2.2";
+                case "SHA-512": return "2.16.840.1.101.3.4.2.3";
+                default: throw new IllegalArgumentException("Unsupported digest algorithm " + digest + ", must be SHA-256, SHA-384 or SHA-512");
+            }
+        }
+    }
+}
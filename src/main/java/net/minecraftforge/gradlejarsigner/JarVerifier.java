@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Checks the signatures of a jar the same way the JDK does when it loads one, except that entries
+ * are digested on multiple threads and every problem is collected instead of stopping at the first.
+ * Like {@code jarsigner -verify -strict}, the signers' certificates also have to be valid and allowed
+ * to sign code at the time of the signature's timestamp, or now if it doesn't have one. Certificate chains
+ * aren't checked against trusted roots, so this doesn't tell who signed the jar, only that it's intact.
+ */
+final class JarVerifier {
+    private static final String OID_MESSAGE_DIGEST = "1.2.840.113549.1.9.4";
+    private static final String OID_CODE_SIGNING = "1.3.6.1.5.5.7.3.3";
+    private static final String OID_TIME_STAMPING = "1.3.6.1.5.5.7.3.8";
+    private static final String OID_ANY_USAGE = "2.5.29.37.0";
+
+    private final int threads;
+
+    /**
+     * @param threads Number of threads used to digest entries
+     */
+    JarVerifier(int threads) {
+        this.threads = threads;
+    }
+
+    Result verify(File jar) throws IOException {
+        Result ret = new Result();
+        try (ZipArchive zip = ZipArchive.open(jar)) {
+            ZipArchive.Entry mf = zip.getEntry(JarSigner.MANIFEST);
+            if (mf == null) {
+                ret.errors.add("Jar does not have a manifest");
+                return ret;
+            }
+
+            byte[] manifest = zip.readAll(mf);
+            List<Section> sections = Section.parse(manifest);
+            Map<String, Section> byName = new HashMap<>();
+            for (Section section : sections.subList(1, sections.size()))
+                byName.put(section.name, section);
+
+            // Entries are only signed if a signature file vouches for their manifest section
+            Set<String> covered = new HashSet<>();
+            for (ZipArchive.Entry entry : zip.getEntries()) {
+                if (!isSignatureBlock(entry.name))
+                    continue;
+
+                ZipArchive.Entry sf = zip.getEntry(entry.name.substring(0, entry.name.lastIndexOf('.')) + ".SF");
+                if (sf == null) {
+                    ret.errors.add("Signature block " + entry.name + " does not have a signature file");
+                    continue;
+                }
+
+                byte[] sfData = zip.readAll(sf);
+                Signer signer;
+                try {
+                    signer = checkBlock(zip.readAll(entry), sfData);
+                } catch (IOException | GeneralSecurityException | IndexOutOfBoundsException e) {
+                    ret.errors.add("Invalid signature block " + entry.name + ": " + e.getMessage());
+                    continue;
+                }
+                ret.signers.add(signer.cert.getSubjectX500Principal().getName());
+
+                try {
+                    checkCertificate(signer);
+                } catch (CertificateException e) {
+                    ret.errors.add(entry.name + ": " + e.getMessage());
+                }
+
+                try {
+                    checkSignatureFile(sf.name, Section.parse(sfData), manifest, sections, byName, covered, ret.errors);
+                } catch (NoSuchAlgorithmException e) {
+                    ret.errors.add("Unsupported digest in " + sf.name + ": " + e.getMessage());
+                }
+            }
+
+            if (ret.signers.isEmpty() && ret.errors.isEmpty())
+                ret.errors.add("Jar is not signed");
+
+            // Group entries by digest algorithm, normally there is only one
+            Map<String, List<ZipArchive.Entry>> entries = new LinkedHashMap<>();
+            Map<String, List<String>> expected = new HashMap<>();
+            for (ZipArchive.Entry entry : zip.getEntries()) {
+                if (entry.isDirectory() || JarSigner.isSignatureRelated(entry.name))
+                    continue;
+
+                Section section = covered.contains(entry.name) ? byName.get(entry.name) : null;
+                boolean signed = false;
+                if (section != null) {
+                    for (Map.Entry<String, String> attr : section.attributes.entrySet()) {
+                        String key = attr.getKey();
+                        if (key.length() > 7 && key.regionMatches(true, key.length() - 7, "-Digest", 0, 7)) {
+                            String algorithm = key.substring(0, key.length() - 7);
+                            entries.computeIfAbsent(algorithm, k -> new ArrayList<>()).add(entry);
+                            expected.computeIfAbsent(algorithm, k -> new ArrayList<>()).add(attr.getValue());
+                            signed = true;
+                        }
+                    }
+                }
+
+                if (signed)
+                    ret.signed++;
+                else
+                    ret.unsigned.add(entry.name);
+            }
+
+            for (Map.Entry<String, List<ZipArchive.Entry>> group : entries.entrySet()) {
+                byte[][] digests;
+                try {
+                    digests = new Digester(group.getKey(), this.threads).digest(zip, group.getValue());
+                } catch (GeneralSecurityException e) {
+                    ret.errors.add("Unsupported entry digest " + group.getKey() + ": " + e.getMessage());
+                    continue;
+                }
+
+                List<String> values = expected.get(group.getKey());
+                for (int x = 0; x < digests.length; x++) {
+                    if (!Base64.getEncoder().encodeToString(digests[x]).equals(values.get(x).trim()))
+                        ret.errors.add(group.getValue().get(x).name + ": " + group.getKey() + " digest does not match the manifest");
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks if the jar already has a valid signature from the certificate over exactly these entries, and returns the
+     * digest the manifest has for each of them. Only the manifest and signature files are read, so this is cheap
+     * compared to digesting the entries, which is only worth doing to compare against these.
+     *
+     * @param name         Name of the signature files, without an extension
+     * @param digestOid    Digest algorithm the signature block has to use
+     * @param signatureOid Signature algorithm the signature block has to use
+     * @param createdBy    Created-By the signature file has to have, so changing how jars are signed signs them again
+     * @param timestamped  If the signature has to have a timestamp
+     * @return The base64 encoded digests in the same order as the entries, null if the jar isn't signed by the certificate
+     */
+    static @Nullable String[] getSignedDigests(ZipArchive zip, String name, X509Certificate cert, String digestOid, String signatureOid, String createdBy, boolean timestamped, String algorithm, List<ZipArchive.Entry> entries) throws IOException {
+        ZipArchive.Entry mf = zip.getEntry(JarSigner.MANIFEST);
+        ZipArchive.Entry sf = zip.getEntry("META-INF/" + name + ".SF");
+        ZipArchive.Entry block = null;
+        for (String extension : new String[] { ".RSA", ".EC", ".DSA" }) {
+            if (block == null)
+                block = zip.getEntry("META-INF/" + name + extension);
+        }
+        if (mf == null || sf == null || block == null)
+            return null;
+
+        byte[] sfData = zip.readAll(sf);
+        List<Section> sfSections = Section.parse(sfData);
+        if (!createdBy.equals(sfSections.get(0).attributes.get("Created-By")))
+            return null;
+
+        try {
+            Signer signer = checkBlock(zip.readAll(block), sfData);
+            if (!signer.cert.equals(cert) || !signer.digestOid.equals(digestOid) || !signer.signatureOid.equals(signatureOid) || (timestamped && signer.timestamp == null))
+                return null;
+
+            byte[] manifest = zip.readAll(mf);
+            List<Section> sections = Section.parse(manifest);
+            Map<String, Section> byName = new HashMap<>();
+            for (Section section : sections.subList(1, sections.size()))
+                byName.put(section.name, section);
+
+            Set<String> covered = new HashSet<>();
+            List<String> errors = new ArrayList<>();
+            checkSignatureFile(sf.name, sfSections, manifest, sections, byName, covered, errors);
+            if (!errors.isEmpty())
+                return null;
+
+            // Any other entry with a digest means the filters changed since the jar was signed.
+            // Sections for entries that aren't in the jar are kept by jarsigner, so they don't matter.
+            String key = algorithm + "-Digest";
+            int count = 0;
+            for (Section section : byName.values()) {
+                if (section.attributes.containsKey(key) && zip.getEntry(section.name) != null)
+                    count++;
+            }
+            if (count != entries.size())
+                return null;
+
+            String[] ret = new String[entries.size()];
+            for (int x = 0; x < ret.length; x++) {
+                String entry = entries.get(x).name;
+                Section section = covered.contains(entry) ? byName.get(entry) : null;
+                if (section == null || !section.attributes.containsKey(key))
+                    return null;
+                ret[x] = section.attributes.get(key).trim();
+            }
+            return ret;
+        } catch (GeneralSecurityException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Verifies the PKCS#7 signature over the signature file, and the timestamp if it has one, and returns who signed it.
+     *
+     * @param sf Detached content, the signature file, or null to verify the content embedded in the SignedData
+     */
+    private static Signer checkBlock(byte[] block, @Nullable byte[] sf) throws IOException, GeneralSecurityException {
+        List<Der> info = Der.read(block, 0).expect(Pkcs7.SEQUENCE).children();
+        if (!Pkcs7.OID_SIGNED_DATA.equals(info.get(0).oid()))
+            throw new IOException("Not a PKCS#7 SignedData");
+
+        // SignedData ::= SEQUENCE { version, digestAlgorithms, encapContentInfo, [0] certificates, [1] crls, signerInfos }
+        List<Der> signedData = info.get(1).expect(0xA0).child(0).expect(Pkcs7.SEQUENCE).children();
+        if (sf == null) {
+            // EncapsulatedContentInfo ::= SEQUENCE { eContentType, [0] EXPLICIT eContent OCTET STRING OPTIONAL }
+            List<Der> encap = signedData.get(2).expect(Pkcs7.SEQUENCE).children();
+            if (encap.size() < 2)
+                throw new IOException("SignedData does not contain its content");
+            sf = encap.get(1).expect(0xA0).child(0).expect(Pkcs7.OCTET_STRING).value();
+        }
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        List<X509Certificate> certs = new ArrayList<>();
+        Der signerInfos = null;
+        for (Der part : signedData.subList(3, signedData.size())) {
+            if (part.tag == 0xA0) {
+                for (Der cert : part.children())
+                    certs.add((X509Certificate)factory.generateCertificate(new ByteArrayInputStream(cert.encoded())));
+            } else if (part.tag == Pkcs7.SET) {
+                signerInfos = part;
+            }
+        }
+        if (signerInfos == null)
+            throw new IOException("No signer information");
+
+        // SignerInfo ::= SEQUENCE { version, issuerAndSerialNumber, digestAlgorithm, [0] signedAttrs, signatureAlgorithm, signature, [1] unsignedAttrs }
+        List<Der> signer = signerInfos.child(0).expect(Pkcs7.SEQUENCE).children();
+        List<Der> sid = signer.get(1).expect(Pkcs7.SEQUENCE).children();
+        byte[] issuer = sid.get(0).encoded();
+        BigInteger serial = sid.get(1).expect(Pkcs7.INTEGER).integer();
+        X509Certificate cert = null;
+        for (X509Certificate candidate : certs) {
+            if (candidate.getSerialNumber().equals(serial) && Arrays.equals(candidate.getIssuerX500Principal().getEncoded(), issuer))
+                cert = candidate;
+        }
+        if (cert == null)
+            throw new IOException("Signer certificate is missing");
+
+        String digestOid = signer.get(2).expect(Pkcs7.SEQUENCE).child(0).oid();
+        String digest = getDigestName(digestOid);
+        int idx = 3;
+        Der signedAttrs = signer.get(idx).tag == 0xA0 ? signer.get(idx++) : null;
+        String signatureOid = signer.get(idx++).expect(Pkcs7.SEQUENCE).child(0).oid();
+        String algorithm = getSignatureName(digest, signatureOid);
+        byte[] signature = signer.get(idx++).expect(Pkcs7.OCTET_STRING).value();
+        // The only unsigned attribute we care about is the timestamp, which is what jarsigner puts there
+        Date timestamp = null;
+        if (idx < signer.size() && signer.get(idx).tag == 0xA1) {
+            for (Der attr : signer.get(idx).children()) {
+                List<Der> parts = attr.expect(Pkcs7.SEQUENCE).children();
+                if (Pkcs7.OID_TIMESTAMP_TOKEN.equals(parts.get(0).oid()))
+                    timestamp = checkTimestamp(parts.get(1).expect(Pkcs7.SET).child(0).encoded(), signature);
+            }
+        }
+
+        Signature sig = Signature.getInstance(algorithm);
+        sig.initVerify(cert.getPublicKey());
+        if (signedAttrs == null) {
+            sig.update(sf);
+        } else {
+            // The signature is over the attributes, which have to include the digest of the signature file
+            byte[] sfDigest = MessageDigest.getInstance(digest).digest(sf);
+            boolean matched = false;
+            for (Der attr : signedAttrs.children()) {
+                List<Der> parts = attr.expect(Pkcs7.SEQUENCE).children();
+                if (OID_MESSAGE_DIGEST.equals(parts.get(0).oid()))
+                    matched = Arrays.equals(parts.get(1).expect(Pkcs7.SET).child(0).expect(Pkcs7.OCTET_STRING).value(), sfDigest);
+            }
+            if (!matched)
+                throw new SignatureException("Signature file does not match the signed attributes");
+
+            byte[] attrs = signedAttrs.encoded();
+            attrs[0] = (byte)Pkcs7.SET;
+            sig.update(attrs);
+        }
+
+        if (!sig.verify(signature))
+            throw new SignatureException("Signature does not match the signature file");
+        return new Signer(cert, digestOid, signatureOid, sf, timestamp);
+    }
+
+    /**
+     * Verifies an RFC 3161 timestamp token: that its authority signed it, was allowed to, and that it's for this signature.
+     *
+     * @return The time the token vouches for
+     */
+    static Date checkTimestamp(byte[] token, byte[] signature) throws IOException, GeneralSecurityException {
+        Signer tsa = checkBlock(token, null);
+        List<String> usage = tsa.cert.getExtendedKeyUsage();
+        if (usage == null || !usage.contains(OID_TIME_STAMPING))
+            throw new CertificateException("Timestamp is signed by " + tsa.cert.getSubjectX500Principal().getName() + ", which is not a timestamp authority");
+
+        // TSTInfo ::= SEQUENCE { version, policy, messageImprint SEQUENCE { hashAlgorithm, hashedMessage }, serialNumber, genTime, ... }
+        List<Der> tst = Der.read(tsa.content, 0).expect(Pkcs7.SEQUENCE).children();
+        List<Der> imprint = tst.get(2).expect(Pkcs7.SEQUENCE).children();
+        String digest = getDigestName(imprint.get(0).expect(Pkcs7.SEQUENCE).child(0).oid());
+        if (!Arrays.equals(imprint.get(1).expect(Pkcs7.OCTET_STRING).value(), MessageDigest.getInstance(digest).digest(signature)))
+            throw new SignatureException("Timestamp was issued for a different signature");
+
+        Date time = tst.get(4).time();
+        tsa.cert.checkValidity(time);
+        return time;
+    }
+
+    /** Checks the signer's certificate was valid and allowed to sign code when the jar was signed, or now if that isn't known. */
+    private static void checkCertificate(Signer signer) throws CertificateException {
+        X509Certificate cert = signer.cert;
+        Date time = signer.timestamp != null ? signer.timestamp : new Date();
+        String when = signer.timestamp != null ? " when the jar was timestamped at " + signer.timestamp : "";
+        if (time.after(cert.getNotAfter()))
+            throw new CertificateExpiredException("Certificate of " + cert.getSubjectX500Principal().getName() + " expired on " + cert.getNotAfter() + when);
+        if (time.before(cert.getNotBefore()))
+            throw new CertificateNotYetValidException("Certificate of " + cert.getSubjectX500Principal().getName() + " is not valid until " + cert.getNotBefore() + when);
+
+        // Same as jarsigner, either extension is optional, but if it's there it has to allow signing code
+        boolean[] keyUsage = cert.getKeyUsage();
+        if (keyUsage != null && (keyUsage.length == 0 || !keyUsage[0]))
+            throw new CertificateException("Certificate of " + cert.getSubjectX500Principal().getName() + " does not allow digital signatures");
+        List<String> extended = cert.getExtendedKeyUsage();
+        if (extended != null && !extended.contains(OID_CODE_SIGNING) && !extended.contains(OID_ANY_USAGE))
+            throw new CertificateException("Certificate of " + cert.getSubjectX500Principal().getName() + " does not allow code signing");
+    }
+
+    private static void checkSignatureFile(String name, List<Section> sf, byte[] manifest, List<Section> sections, Map<String, Section> byName, Set<String> covered, List<String> errors) throws NoSuchAlgorithmException {
+        // Same shortcut as the JDK, if the whole manifest is unchanged then so is every section in it
+        for (Map.Entry<String, String> attr : sf.get(0).attributes.entrySet()) {
+            String key = attr.getKey();
+            if (key.length() > 16 && key.regionMatches(true, key.length() - 16, "-Digest-Manifest", 0, 16)) {
+                byte[] digest = MessageDigest.getInstance(key.substring(0, key.length() - 16)).digest(manifest);
+                if (Base64.getEncoder().encodeToString(digest).equals(attr.getValue().trim())) {
+                    for (Section section : sections.subList(1, sections.size()))
+                        covered.add(section.name);
+                    return;
+                }
+            }
+        }
+
+        Section main = sections.get(0);
+        for (Map.Entry<String, String> attr : sf.get(0).attributes.entrySet()) {
+            String key = attr.getKey();
+            if (key.length() > 32 && key.regionMatches(true, key.length() - 32, "-Digest-Manifest-Main-Attributes", 0, 32) &&
+                !main.matches(manifest, key.substring(0, key.length() - 32), attr.getValue()))
+                errors.add(name + ": Main attributes of the manifest were modified");
+        }
+
+        for (Section entry : sf.subList(1, sf.size())) {
+            Section section = byName.get(entry.name);
+            if (section == null)
+                continue;
+
+            boolean valid = true;
+            for (Map.Entry<String, String> attr : entry.attributes.entrySet()) {
+                String key = attr.getKey();
+                if (key.length() > 7 && key.regionMatches(true, key.length() - 7, "-Digest", 0, 7))
+                    valid &= section.matches(manifest, key.substring(0, key.length() - 7), attr.getValue());
+            }
+
+            if (valid)
+                covered.add(entry.name);
+            else
+                errors.add(name + ": Manifest section for " + entry.name + " was modified");
+        }
+    }
+
+    private static boolean isSignatureBlock(String name) {
+        String upper = name.toUpperCase(Locale.ENGLISH);
+        return upper.startsWith("META-INF/") && upper.indexOf('/', 9) == -1 &&
+            (upper.endsWith(".RSA") || upper.endsWith(".EC") || upper.endsWith(".DSA"));
+    }
+
+    private static String getDigestName(String oid) throws NoSuchAlgorithmException {
+        switch (oid) {
+            case "1.3.14.3.2.26":          return "SHA-1";
+            case "2.16.840.1.101.3.4.2.4": return "SHA-224";
+            case "2.16.840.1.101.3.4.2.1": return "SHA-256";
+            case "2.16.840.1.101.3.4.2.2": return "SHA-384";
+            case "2.16.840.1.101.3.4.2.3": return "SHA-512";
+            default: throw new NoSuchAlgorithmException("Unsupported digest algorithm " + oid);
+        }
+    }
+
+    private static String getSignatureName(String digest, String oid) {
+        String prefix = digest.replace("-", "");
+        switch (oid) {
+            // Key algorithms, combined with the signer's digest algorithm
+            case "1.2.840.113549.1.1.1": return prefix + "withRSA";
+            case "1.2.840.10045.2.1":    return prefix + "withECDSA";
+            case "1.2.840.10040.4.1":    return prefix + "withDSA";
+            case "1.3.101.112":          return "Ed25519";
+            // Everything else is a full signature algorithm, which providers register aliases for
+            default: return oid;
+        }
+    }
+
+    static final class Result {
+        final List<String> signers = new ArrayList<>();
+        final List<String> unsigned = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        int signed;
+    }
+
+    private static final class Signer {
+        private final X509Certificate cert;
+        private final String digestOid;
+        private final String signatureOid;
+        /** What was signed */
+        private final byte[] content;
+        /** Verified time of the signature's timestamp, null if it doesn't have one */
+        private final @Nullable Date timestamp;
+
+        private Signer(X509Certificate cert, String digestOid, String signatureOid, byte[] content, @Nullable Date timestamp) {
+            this.cert = cert;
+            this.digestOid = digestOid;
+            this.signatureOid = signatureOid;
+            this.content = content;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /** A section of a manifest or signature file, along with where its raw bytes are. */
+    private static final class Section {
+        private final Map<String, String> attributes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final int start;
+        private int end;
+        private String name;
+
+        private Section(int start) {
+            this.start = start;
+        }
+
+        private boolean matches(byte[] data, String algorithm, String expected) throws NoSuchAlgorithmException {
+            MessageDigest md = MessageDigest.getInstance(algorithm);
+            md.update(data, this.start, this.end - this.start);
+            return Base64.getEncoder().encodeToString(md.digest()).equals(expected.trim());
+        }
+
+        /** Splits the data into sections, each one includes the blank line that ends it. The first is always the main section. */
+        private static List<Section> parse(byte[] data) {
+            List<Section> ret = new ArrayList<>();
+            Section current = new Section(0);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int x = 0;
+            while (x < data.length) {
+                int start = x;
+                while (x < data.length && data[x] != '\r' && data[x] != '\n')
+                    x++;
+                int end = x;
+                if (x < data.length && data[x] == '\r')
+                    x++;
+                if (x < data.length && data[x] == '\n' && (x == end || data[x - 1] == '\r'))
+                    x++;
+
+                if (end > start && data[start] == ' ') {
+                    line.write(data, start + 1, end - start - 1);
+                    continue;
+                }
+
+                current.add(line);
+                if (end == start) {
+                    if (!current.attributes.isEmpty() || ret.isEmpty()) {
+                        current.end = x;
+                        ret.add(current);
+                    }
+                    current = new Section(x);
+                } else {
+                    line.write(data, start, end - start);
+                }
+            }
+
+            current.add(line);
+            if (!current.attributes.isEmpty() || ret.isEmpty()) {
+                current.end = data.length;
+                ret.add(current);
+            }
+            return ret;
+        }
+
+        private void add(ByteArrayOutputStream line) {
+            if (line.size() == 0)
+                return;
+
+            String value = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            line.reset();
+            int split = value.indexOf(": ");
+            if (split == -1)
+                return;
+
+            String key = value.substring(0, split);
+            this.attributes.put(key, value.substring(split + 2));
+            if (this.name == null && "Name".equalsIgnoreCase(key))
+                this.name = value.substring(split + 2);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Keeps unlocked keys in memory so a keystore is only loaded once per build, no matter how many jars it signs.
+ * This is a build service so it can be handed to sign workers, and Gradle closes it once the build is finished.
+ * Nothing is ever written to disk.
+ */
+public abstract class KeyCache implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    private final Map<String, SigningKey> keys = new HashMap<>();
+    private final Map<String, String> fingerprints = new HashMap<>();
+
+    static Provider<KeyCache> register(Project project) {
+        return project.getGradle().getSharedServices().registerIfAbsent("jarSignerKeys", KeyCache.class, spec -> {});
+    }
+
+    SigningKey get(byte[] keyStore, String storeType, String providerClass, String providerArg, String storePass, String alias, String keyPass) throws IOException, GeneralSecurityException {
+        String id = getId(keyStore, storeType, providerClass, providerArg, storePass, alias, keyPass);
+
+        // Loading is slow for strongly protected keystores, so let everyone wait for the first load instead of doing it in parallel
+        synchronized (this.keys) {
+            SigningKey key = this.keys.get(id);
+            if (key == null) {
+                long start = System.nanoTime();
+                key = SigningKey.load(keyStore, storeType, providerClass, providerArg, storePass, alias, keyPass);
+                key.loadTime = System.nanoTime() - start;
+                this.keys.put(id, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * The certificate's fingerprint, used as a task input. It's looked up on every up-to-date check, so it only opens the
+     * keystore with its password and reads the certificate, instead of unlocking the key.
+     */
+    String getFingerprint(byte[] keyStore, String storeType, String providerClass, String providerArg, String storePass, String alias) throws IOException, GeneralSecurityException {
+        String id = getId(keyStore, storeType, providerClass, providerArg, storePass, alias);
+        synchronized (this.fingerprints) {
+            String ret = this.fingerprints.get(id);
+            if (ret == null) {
+                ret = SigningKey.loadFingerprint(keyStore, storeType, providerClass, providerArg, storePass, alias);
+                this.fingerprints.put(id, ret);
+            }
+            return ret;
+        }
+    }
+
+    /** Same as above for a key held by a {@link SignAgent}, which is asked for its certificate once per agent and alias. */
+    String getFingerprint(File agent, String alias) throws IOException, GeneralSecurityException {
+        // Keyed by the file's contents, which change whenever the agent restarts
+        String id = getId(Files.readAllBytes(agent.toPath()), "agent", alias);
+        synchronized (this.fingerprints) {
+            String ret = this.fingerprints.get(id);
+            if (ret == null) {
+                ret = SignAgent.connect(agent, alias).getFingerprint();
+                this.fingerprints.put(id, ret);
+            }
+            return ret;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.keys) {
+            this.keys.clear();
+        }
+        synchronized (this.fingerprints) {
+            this.fingerprints.clear();
+        }
+    }
+
+    // Hashed so the cache doesn't hold onto passwords or keystore data
+    private static String getId(byte[] keyStore, String... values) throws GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(keyStore);
+        for (String value : values) {
+            if (value == null) {
+                md.update((byte)0);
+            } else {
+                md.update((byte)1);
+                byte[] data = value.getBytes(StandardCharsets.UTF_8);
+                md.update(ByteBuffer.allocate(4).putInt(data.length).array());
+                md.update(data);
+            }
+        }
+        return new BigInteger(1, md.digest()).toString(16);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.GeneralSecurityException;
+
+import org.jetbrains.annotations.Nullable;
+
+/** Everything needed to load one signer's key, resolved by the task so it can be handed to a worker. */
+final class KeySource implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final @Nullable File keyStoreFile;
+    final @Nullable String keyStoreData;
+    final @Nullable String storeType;
+    final @Nullable String providerClass;
+    final @Nullable String providerArg;
+    final @Nullable String storePass;
+    final String alias;
+    final @Nullable String keyPass;
+    /** File of the {@link SignAgent} holding the key, in which case nothing else but the alias and algorithm is set */
+    final @Nullable File agent;
+    /** Signature algorithm to use with the key, null to pick one from its type */
+    final @Nullable String sigAlg;
+
+    KeySource(@Nullable File keyStoreFile, @Nullable String keyStoreData, @Nullable String storeType, @Nullable String providerClass,
+            @Nullable String providerArg, String storePass, String alias, String keyPass, @Nullable String sigAlg) {
+        this.keyStoreFile = keyStoreFile;
+        this.keyStoreData = keyStoreData;
+        this.storeType = storeType;
+        this.providerClass = providerClass;
+        this.providerArg = providerArg;
+        this.storePass = storePass;
+        this.alias = alias;
+        this.keyPass = keyPass;
+        this.agent = null;
+        this.sigAlg = sigAlg;
+    }
+
+    KeySource(File agent, String alias, @Nullable String sigAlg) {
+        this.keyStoreFile = null;
+        this.keyStoreData = null;
+        this.storeType = null;
+        this.providerClass = null;
+        this.providerArg = null;
+        this.storePass = null;
+        this.alias = alias;
+        this.keyPass = null;
+        this.agent = agent;
+        this.sigAlg = sigAlg;
+    }
+
+    /**
+     * Fingerprint of the key's certificate, which only needs the keystore password, or for an agent the agent to be running.
+     *
+     * @param cache Cache to share the fingerprint through, null to always look it up
+     */
+    String getFingerprint(@Nullable KeyCache cache) throws IOException, GeneralSecurityException {
+        if (this.agent != null)
+            return cache != null ? cache.getFingerprint(this.agent, this.alias) : SignAgent.connect(this.agent, this.alias).getFingerprint();
+
+        byte[] keyStore = SigningKey.readKeyStore(this.keyStoreFile, this.keyStoreData);
+        return cache != null
+            ? cache.getFingerprint(keyStore, this.storeType, this.providerClass, this.providerArg, this.storePass, this.alias)
+            : SigningKey.loadFingerprint(keyStore, this.storeType, this.providerClass, this.providerArg, this.storePass, this.alias);
+    }
+
+    /** @param cache Cache to share the unlocked key through, null to always load it */
+    SigningKey load(@Nullable KeyCache cache) throws IOException, GeneralSecurityException {
+        long start = System.nanoTime();
+        SigningKey ret;
+        if (this.agent != null) {
+            ret = SignAgent.connect(this.agent, this.alias);
+        } else {
+            byte[] keyStore = SigningKey.readKeyStore(this.keyStoreFile, this.keyStoreData);
+            // The cache times the first load itself, later ones just return it
+            if (cache != null)
+                return cache.get(keyStore, this.storeType, this.providerClass, this.providerArg, this.storePass, this.alias, this.keyPass);
+            ret = SigningKey.load(keyStore, this.storeType, this.providerClass, this.providerArg, this.storePass, this.alias, this.keyPass);
+        }
+        ret.loadTime = System.nanoTime() - start;
+        return ret;
+    }
+}
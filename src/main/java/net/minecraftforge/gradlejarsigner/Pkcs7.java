@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Minimal DER encoder for the detached PKCS#7 SignedData block jarsigner writes
+ * next to the signature file. The JDK only exposes this through internal sun.* classes.
+ */
+final class Pkcs7 {
+    private static final String OID_DATA = "1.2.840.113549.1.7.1";
+    static final String OID_TIMESTAMP_TOKEN = "1.2.840.113549.1.9.16.2.14";
+    static final String OID_SIGNED_DATA = "1.2.840.113549.1.7.2";
+
+    static final int SEQUENCE = 0x30;
+    static final int SET = 0x31;
+    static final int INTEGER = 0x02;
+    static final int OCTET_STRING = 0x04;
+    static final int NULL = 0x05;
+    static final int OID = 0x06;
+    static final int GENERALIZED_TIME = 0x18;
+
+    private Pkcs7() {}
+
+    /**
+     * Builds a ContentInfo wrapping a SignedData with no embedded content and a single signer.
+     *
+     * @param digestAlg    Digest algorithm identifier, as returned by {@link #algorithm(String, boolean)}
+     * @param signatureAlg Signature algorithm identifier, as returned by {@link #algorithm(String, boolean)}
+     * @param chain        Signer certificate chain, signer first
+     * @param signature    Raw signature over the signature file
+     * @param timestamp    RFC 3161 timestamp token over the signature, added as an unsigned attribute
+     */
+    static byte[] signedData(byte[] digestAlg, byte[] signatureAlg, X509Certificate[] chain, byte[] signature, @Nullable byte[] timestamp) throws CertificateEncodingException {
+        X509Certificate signer = chain[0];
+
+        ByteArrayOutputStream certs = new ByteArrayOutputStream();
+        for (X509Certificate cert : chain)
+            write(certs, cert.getEncoded());
+
+        byte[] signerInfo = tag(SEQUENCE,
+            integer(BigInteger.ONE),
+            tag(SEQUENCE,
+                signer.getIssuerX500Principal().getEncoded(),
+                integer(signer.getSerialNumber())
+            ),
+            digestAlg,
+            signatureAlg,
+            tag(OCTET_STRING, signature),
+            timestamp == null ? new byte[0] : tag(0xA1,
+                tag(SEQUENCE,
+                    oid(OID_TIMESTAMP_TOKEN),
+                    tag(SET, timestamp)
+                )
+            )
+        );
+
+        byte[] signedData = tag(SEQUENCE,
+            integer(BigInteger.ONE),
+            tag(SET, digestAlg),
+            tag(SEQUENCE, oid(OID_DATA)),
+            tag(0xA0, certs.toByteArray()),
+            tag(SET, signerInfo)
+        );
+
+        return tag(SEQUENCE,
+            oid(OID_SIGNED_DATA),
+            tag(0xA0, signedData)
+        );
+    }
+
+    static byte[] algorithm(String oid, boolean nullParams) {
+        return nullParams ? tag(SEQUENCE, oid(oid), new byte[] { NULL, 0 }) : tag(SEQUENCE, oid(oid));
+    }
+
+    static byte[] integer(BigInteger value) {
+        return tag(INTEGER, value.toByteArray());
+    }
+
+    static byte[] oid(String value) {
+        String[] parts = value.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeBase128(out, Long.parseLong(parts[0]) * 40 + Long.parseLong(parts[1]));
+        for (int x = 2; x < parts.length; x++)
+            writeBase128(out, Long.parseLong(parts[x]));
+        return tag(OID, out.toByteArray());
+    }
+
+    static byte[] tag(int tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents)
+            length += content.length;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = 0;
+            for (int x = length; x != 0; x >>>= 8)
+                bytes++;
+            out.write(0x80 | bytes);
+            for (int x = bytes - 1; x >= 0; x--)
+                out.write(length >>> (x * 8));
+        }
+        for (byte[] content : contents)
+            write(out, content);
+        return out.toByteArray();
+    }
+
+    private static void writeBase128(ByteArrayOutputStream out, long value) {
+        int groups = 1;
+        for (long x = value >>> 7; x != 0; x >>>= 7)
+            groups++;
+        for (int x = groups - 1; x >= 0; x--) {
+            int b = (int)((value >>> (x * 7)) & 0x7F);
+            out.write(x == 0 ? b : b | 0x80);
+        }
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] data) {
+        out.write(data, 0, data.length);
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Console;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Long running process that holds unlocked keys, so a keystore is only unlocked once per machine instead of in every build.
+ * It listens on a loopback port, and writes the port and a random token to a file only its user can read. Clients have to
+ * send the token when they connect. Builds send it the data to sign, for RSA and ECDSA keys only the digest of the
+ * signature file, and get the signature back, so the private key never leaves the agent.
+ * <p>
+ * It can be run from the plugin's jar, or created in process with any keys, for example as a stand in for tests.
+ */
+public final class SignAgent implements AutoCloseable {
+    static final File DEFAULT_FILE = new File(System.getProperty("user.home"), ".gradle/jarSigner/agent.properties");
+    private static final int MAGIC = 0x4A534741; // JSGA
+    private static final int VERSION = 1;
+    private static final int KEY = 1;
+    private static final int SIGN = 2;
+    private static final int OK = 0;
+    private static final int ERROR = 1;
+    private static final int MAX_DATA = 64 << 20;
+    private static final int TIMEOUT = 30_000;
+
+    private final Map<String, SigningKey> keys;
+    private final ServerSocket server;
+    private final byte[] token = new byte[32];
+    private final File file;
+
+    /**
+     * Starts listening and writes the agent file.
+     *
+     * @param keys Keys by their alias
+     * @param port Port to listen on, 0 to pick a free one
+     * @param file Where to write the port and token
+     */
+    SignAgent(Map<String, SigningKey> keys, int port, File file) throws IOException {
+        for (SigningKey key : keys.values()) {
+            if (key.key == null)
+                throw new IllegalArgumentException("An agent can only hold local keys");
+        }
+        this.keys = keys;
+        this.file = file;
+        new SecureRandom().nextBytes(this.token);
+
+        this.server = new ServerSocket();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        try {
+            writeFile();
+        } catch (IOException e) {
+            this.server.close();
+            throw e;
+        }
+
+        Thread thread = new Thread(this::accept, "JarSigner Agent");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.server.close();
+        this.file.delete();
+    }
+
+    private void writeFile() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("port", Integer.toString(getPort()));
+        props.setProperty("token", Base64.getEncoder().encodeToString(this.token));
+
+        // Created empty first, so it's never readable by anyone else, even for a moment
+        Path path = this.file.toPath();
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(path);
+        }
+        try (OutputStream out = Files.newOutputStream(path)) {
+            props.store(out, "JarSigner signing agent");
+        }
+    }
+
+    private void accept() {
+        while (!this.server.isClosed()) {
+            try {
+                Socket socket = this.server.accept();
+                Thread thread = new Thread(() -> handle(socket), "JarSigner Agent Client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!this.server.isClosed())
+                    System.err.println("Failed to accept connection: " + e);
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            s.setSoTimeout(TIMEOUT);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            // Nothing is answered until the client proved it can read our file
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !MessageDigest.isEqual(this.token, readBytes(in)))
+                return;
+
+            // One connection can be used for any number of requests
+            while (true) {
+                int command;
+                try {
+                    command = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                try {
+                    String alias = in.readUTF();
+                    SigningKey key = this.keys.get(alias);
+                    if (command == KEY) {
+                        if (key == null)
+                            throw new IllegalArgumentException("Agent does not have a key for alias: " + alias);
+                        String type = key.getType();
+                        byte[][] certs = new byte[key.chain.length][];
+                        for (int x = 0; x < certs.length; x++)
+                            certs[x] = key.chain[x].getEncoded();
+                        out.writeByte(OK);
+                        out.writeUTF(type);
+                        out.writeInt(certs.length);
+                        for (byte[] cert : certs)
+                            writeBytes(out, cert);
+                    } else if (command == SIGN) {
+                        String algorithm = in.readUTF();
+                        byte[] data = readBytes(in);
+                        if (key == null)
+                            throw new IllegalArgumentException("Agent does not have a key for alias: " + alias);
+                        byte[] signature = key.signLocal(algorithm, data);
+                        out.writeByte(OK);
+                        writeBytes(out, signature);
+                    } else {
+                        return;
+                    }
+                } catch (GeneralSecurityException | RuntimeException e) {
+                    out.writeByte(ERROR);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                }
+                out.flush();
+            }
+        } catch (SocketException | EOFException e) {
+            // Client went away
+        } catch (IOException e) {
+            System.err.println("Failed to handle request: " + e);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_DATA)
+            throw new IOException("Invalid data length: " + length);
+        byte[] ret = new byte[length];
+        in.readFully(ret);
+        return ret;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Gets a key from the agent described by the file.
+     *
+     * @param file  File written by the agent when it started
+     * @param alias Alias of the key in the agent
+     */
+    static SigningKey connect(File file, String alias) throws IOException, GeneralSecurityException {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            props.load(in);
+        } catch (IOException e) {
+            throw new IOException("Could not read signing agent file " + file + ", is the agent running?", e);
+        }
+
+        String port = props.getProperty("port");
+        String token = props.getProperty("token");
+        if (port == null || token == null)
+            throw new IOException("Invalid signing agent file " + file);
+
+        Client client = new Client(Integer.parseInt(port), Base64.getDecoder().decode(token.getBytes(StandardCharsets.UTF_8)), alias);
+        return client.getKey();
+    }
+
+    /** Connection to an agent for a single alias. Every request uses a new connection, so it can be shared between threads. */
+    static final class Client {
+        private final int port;
+        private final byte[] token;
+        private final String alias;
+
+        private Client(int port, byte[] token, String alias) {
+            this.port = port;
+            this.token = token;
+            this.alias = alias;
+        }
+
+        private SigningKey getKey() throws IOException, GeneralSecurityException {
+            try (Socket socket = connect()) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out.writeByte(KEY);
+                out.writeUTF(this.alias);
+                out.flush();
+                checkResponse(in);
+
+                String type = in.readUTF();
+                int count = in.readInt();
+                if (count <= 0 || count > 64)
+                    throw new IOException("Signing agent sent an invalid certificate chain");
+                CertificateFactory factory = CertificateFactory.getInstance("X.509");
+                X509Certificate[] chain = new X509Certificate[count];
+                for (int x = 0; x < count; x++)
+                    chain[x] = (X509Certificate)factory.generateCertificate(new ByteArrayInputStream(readBytes(in)));
+                return new SigningKey(chain, type, this);
+            }
+        }
+
+        /**
+         * RSA and ECDSA signatures only depend on the digest of the data, so only that is sent.
+         * Other algorithms, like Ed25519, need the data itself.
+         */
+        byte[] sign(String algorithm, String digestOid, byte[] data) throws IOException, GeneralSecurityException {
+            int idx = algorithm.toUpperCase(Locale.ENGLISH).indexOf("WITH");
+            String type = idx == -1 ? algorithm : algorithm.substring(idx + 4);
+            if ("RSA".equalsIgnoreCase(type) || "ECDSA".equalsIgnoreCase(type)) {
+                byte[] hash = MessageDigest.getInstance(algorithm.substring(0, idx).replace("SHA", "SHA-")).digest(data);
+                if ("RSA".equalsIgnoreCase(type)) {
+                    // PKCS#1 signs DigestInfo ::= SEQUENCE { digestAlgorithm AlgorithmIdentifier, digest OCTET STRING }
+                    data = Pkcs7.tag(Pkcs7.SEQUENCE, Pkcs7.algorithm(digestOid, true), Pkcs7.tag(Pkcs7.OCTET_STRING, hash));
+                    algorithm = "NONEwithRSA";
+                } else {
+                    data = hash;
+                    algorithm = "NONEwithECDSA";
+                }
+            }
+
+            try (Socket socket = connect()) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out.writeByte(SIGN);
+                out.writeUTF(this.alias);
+                out.writeUTF(algorithm);
+                writeBytes(out, data);
+                out.flush();
+                checkResponse(in);
+                return readBytes(in);
+            }
+        }
+
+        private Socket connect() throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port), TIMEOUT);
+                socket.setSoTimeout(TIMEOUT);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeBytes(out, this.token);
+                return socket;
+            } catch (IOException e) {
+                socket.close();
+                throw new IOException("Could not connect to signing agent on port " + this.port + ", is the agent running?", e);
+            }
+        }
+
+        private void checkResponse(DataInputStream in) throws IOException, GeneralSecurityException {
+            int status;
+            try {
+                status = in.readUnsignedByte();
+            } catch (EOFException e) {
+                throw new IOException("Signing agent closed the connection, the agent file is probably out of date");
+            }
+            if (status != OK)
+                throw new GeneralSecurityException("Signing agent failed for " + this.alias + ": " + in.readUTF());
+        }
+    }
+
+    /**
+     * Runs an agent until the process is stopped.
+     * <pre>
+     * java -cp GradleJarSigner.jar net.minecraftforge.gradlejarsigner.SignAgent --keystore keystore.jks --alias key_name [--alias other]
+     *     [--storetype PKCS12] [--port 0] [--file ~/.gradle/jarSigner/agent.properties]
+     * </pre>
+     * Passwords are read from {@code SIGN_KEYSTORE_PASSWORD} and {@code SIGN_KEY_PASSWORD}, or asked for on the console.
+     */
+    public static void main(String[] args) throws IOException, GeneralSecurityException, InterruptedException {
+        File keyStore = null;
+        String storeType = null;
+        Set<String> aliases = new LinkedHashSet<>();
+        int port = 0;
+        File file = DEFAULT_FILE;
+
+        for (int x = 0; x < args.length; x++) {
+            String arg = args[x];
+            if (x + 1 == args.length)
+                throw new IllegalArgumentException("Missing value for " + arg);
+            String value = args[++x];
+            switch (arg) {
+                case "--keystore":  keyStore = new File(value); break;
+                case "--storetype": storeType = value; break;
+                case "--alias":     aliases.add(value); break;
+                case "--port":      port = Integer.parseInt(value); break;
+                case "--file":      file = new File(value); break;
+                default: throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        if (keyStore == null || aliases.isEmpty())
+            throw new IllegalArgumentException("Usage: SignAgent --keystore <file> --alias <alias> [--alias <alias>] [--storetype <type>] [--port <port>] [--file <file>]");
+
+        String storePass = getPassword("SIGN_KEYSTORE_PASSWORD", "Keystore password: ");
+        // Keys without their own password use the keystore's
+        String keyPass = System.getenv("SIGN_KEY_PASSWORD");
+        byte[] data = SigningKey.readKeyStore(keyStore, null);
+        Map<String, SigningKey> keys = new LinkedHashMap<>();
+        for (String alias : aliases)
+            keys.put(alias, SigningKey.load(data, storeType, null, null, storePass, alias, keyPass));
+
+        SignAgent agent = new SignAgent(keys, port, file);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                agent.close();
+            } catch (IOException e) {
+                // Exiting anyways
+            }
+        }));
+        System.out.println("Signing agent listening on port " + agent.getPort() + " with " + String.join(", ", keys.keySet()) + ", agent file: " + file.getAbsolutePath());
+
+        Thread.currentThread().join();
+    }
+
+    private static String getPassword(String env, String prompt) {
+        String ret = System.getenv(env);
+        if (ret != null)
+            return ret;
+        Console console = System.console();
+        if (console == null)
+            throw new IllegalStateException(env + " is not set, and there is no console to ask for it");
+        return new String(console.readPassword(prompt));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * How long each phase of signing a single archive took, and how much data it went through.
+ * Times are in nanoseconds, phases that didn't run are left at 0.
+ */
+final class SignReport {
+    final String archive;
+    boolean skipped;
+    /** Signed by Ant, which only tells us how long its signjar took as a whole, see {@link #antSignJar} */
+    boolean ant;
+
+    /** Time this archive spent getting its keys, close to 0 when another archive already loaded them */
+    long keyStore;
+    /** How long its keys took to load the first time, even when that was for another archive */
+    long keyLoad;
+    long filter;
+    long digest;
+    long signature;
+    long timestamp;
+    /** Signing the archives nested in this one */
+    long nested;
+    long write;
+    /** Ant's signjar, which loads the key, digests, signs and writes the jar in one go */
+    long antSignJar;
+    long total;
+
+    /** Entries in the archive */
+    int entries;
+    /** Entries listed in the manifest with our digest */
+    int signed;
+    /** Archives inside this one that were signed first */
+    int nestedArchives;
+    /** Entries that were actually read, the rest came from the digest index */
+    int digested;
+    /** Uncompressed bytes that were digested */
+    long digestedBytes;
+    /** Size of the signed archive */
+    long writtenBytes;
+    /** Largest amount of data held in memory at once, the manifest, signature file, blocks and signed nested archives. Other entries are always streamed. */
+    long peakBufferedBytes;
+
+    SignReport(String archive) {
+        this.archive = archive;
+    }
+
+    /** Records the phases that happen before the signer runs, everything else is timed by the signer itself. */
+    void setup(long keyStore, long keyLoad, long filter) {
+        this.keyStore += keyStore;
+        this.keyLoad += keyLoad;
+        this.filter += filter;
+        this.total += keyStore + filter;
+    }
+
+    void write(File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    String toJson() {
+        StringBuilder ret = new StringBuilder();
+        ret.append("{\n");
+        ret.append("  \"archive\": \"").append(escape(this.archive)).append("\",\n");
+        ret.append("  \"skipped\": ").append(this.skipped).append(",\n");
+        ret.append("  \"ant\": ").append(this.ant).append(",\n");
+        ret.append("  \"entries\": ").append(this.entries).append(",\n");
+        ret.append("  \"signedEntries\": ").append(this.signed).append(",\n");
+        ret.append("  \"nestedArchives\": ").append(this.nestedArchives).append(",\n");
+        ret.append("  \"digestedEntries\": ").append(this.digested).append(",\n");
+        ret.append("  \"digestedBytes\": ").append(this.digestedBytes).append(",\n");
+        ret.append("  \"writtenBytes\": ").append(this.writtenBytes).append(",\n");
+        ret.append("  \"peakBufferedBytes\": ").append(this.peakBufferedBytes).append(",\n");
+        // Ant does everything but filtering in one step, so the phases it covers are null instead of 0
+        ret.append("  \"timingsMs\": {\n");
+        ret.append("    \"keyStore\": ").append(phase(this.keyStore)).append(",\n");
+        ret.append("    \"keyLoad\": ").append(phase(this.keyLoad)).append(",\n");
+        ret.append("    \"filter\": ").append(millis(this.filter)).append(",\n");
+        ret.append("    \"digest\": ").append(phase(this.digest)).append(",\n");
+        ret.append("    \"signature\": ").append(phase(this.signature)).append(",\n");
+        ret.append("    \"timestamp\": ").append(phase(this.timestamp)).append(",\n");
+        ret.append("    \"nested\": ").append(phase(this.nested)).append(",\n");
+        ret.append("    \"write\": ").append(millis(this.write)).append(",\n");
+        if (this.ant)
+            ret.append("    \"antSignJar\": ").append(millis(this.antSignJar)).append(",\n");
+        ret.append("    \"total\": ").append(millis(this.total)).append('\n');
+        ret.append("  }\n");
+        ret.append("}\n");
+        return ret.toString();
+    }
+
+    private String phase(long nanos) {
+        return this.ant ? "null" : millis(nanos);
+    }
+
+    static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String escape(String value) {
+        StringBuilder ret = new StringBuilder(value.length());
+        for (int x = 0; x < value.length(); x++) {
+            char c = value.charAt(x);
+            if (c == '"' || c == '\\')
+                ret.append('\\').append(c);
+            else if (c < 0x20)
+                ret.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+            else
+                ret.append(c);
+        }
+        return ret.toString();
+    }
+}
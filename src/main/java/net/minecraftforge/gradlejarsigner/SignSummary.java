@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Collects the {@link SignReport} of every archive signed during the build, and logs where the time went once the
+ * build is finished. Each archive also gets its own JSON report, see {@link SignTask}.
+ */
+public abstract class SignSummary implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    private static final Logger LOGGER = Logging.getLogger(SignSummary.class);
+    private final List<SignReport> reports = new ArrayList<>();
+
+    static Provider<SignSummary> register(Project project) {
+        return project.getGradle().getSharedServices().registerIfAbsent("jarSignerSummary", SignSummary.class, spec -> {});
+    }
+
+    void add(SignReport report) {
+        synchronized (this.reports) {
+            this.reports.add(report);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.reports) {
+            if (this.reports.isEmpty())
+                return;
+
+            SignReport sum = new SignReport("total");
+            sum.ant = true;
+            int skipped = 0;
+            for (SignReport report : this.reports) {
+                sum.ant &= report.ant;
+                LOGGER.info("Signed {} in {}ms: {}", report.archive, SignReport.millis(report.total), breakdown(report));
+                if (report.skipped)
+                    skipped++;
+                sum.keyStore += report.keyStore;
+                sum.antSignJar += report.antSignJar;
+                sum.filter += report.filter;
+                sum.digest += report.digest;
+                sum.signature += report.signature;
+                sum.timestamp += report.timestamp;
+                sum.nested += report.nested;
+                sum.write += report.write;
+                sum.total += report.total;
+                sum.entries += report.entries;
+                sum.digestedBytes += report.digestedBytes;
+                sum.writtenBytes += report.writtenBytes;
+                sum.peakBufferedBytes = Math.max(sum.peakBufferedBytes, report.peakBufferedBytes);
+            }
+
+            LOGGER.lifecycle("Signed {} archives ({} already signed) in {}ms: {}", this.reports.size(), skipped, SignReport.millis(sum.total), breakdown(sum));
+            this.reports.clear();
+        }
+    }
+
+    private static String breakdown(SignReport report) {
+        if (report.ant) {
+            return "filter " + SignReport.millis(report.filter) + "ms" +
+                   ", ant signjar " + SignReport.millis(report.antSignJar) + "ms" +
+                   ", write " + SignReport.millis(report.write) + "ms, " + report.writtenBytes + " bytes written";
+        }
+        return "key store " + SignReport.millis(report.keyStore) + "ms" +
+               (report.keyLoad > report.keyStore ? " (loaded in " + SignReport.millis(report.keyLoad) + "ms)" : "") +
+               ", filter " + SignReport.millis(report.filter) + "ms" +
+               ", digest " + SignReport.millis(report.digest) + "ms" +
+               ", signature " + SignReport.millis(report.signature) + "ms" +
+               ", timestamp " + SignReport.millis(report.timestamp) + "ms" +
+               ", nested " + SignReport.millis(report.nested) + "ms" +
+               ", write " + SignReport.millis(report.write) + "ms" +
+               (report.antSignJar > 0 ? ", ant signjar " + SignReport.millis(report.antSignJar) + "ms" : "") +
+               ", " + report.entries + " entries, " + report.digestedBytes + " bytes digested, " + report.writtenBytes + " bytes written";
+    }
+}
@@ -4,53 +4,63 @@
  */
 package net.minecraftforge.gradlejarsigner;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.Map.Entry;
-import java.util.jar.JarOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.stream.Stream;
 
 import org.codehaus.groovy.runtime.InvokerHelper;
+import org.gradle.api.Action;
+import org.gradle.api.Project;
 import org.gradle.api.Task;
+import org.gradle.api.Transformer;
 import org.gradle.api.file.RegularFile;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskInputs;
 import org.gradle.api.file.FileTreeElement;
-import org.gradle.api.file.FileVisitDetails;
-import org.gradle.api.file.FileVisitor;
 import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.bundling.Zip;
 import org.gradle.api.tasks.util.PatternFilterable;
 import org.gradle.api.tasks.util.PatternSet;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import org.jetbrains.annotations.Nullable;
 
 import groovy.lang.Closure;
-import groovy.util.MapEntry;
 
+/**
+ * Signs the archive of a Zip task once it's written. Everything needed to sign is held in fields that can be stored
+ * in the configuration cache, the parent task and the configuration closure are only used while configuring.
+ */
 public class SignTask implements PatternFilterable {
-    private final GradleJarSignerExtension ext;
-    private final Zip parent;
-    private final Closure<SignTask> config;
+    private final transient Zip parent;
+    private final WorkerExecutor workers;
     private final Property<String> alias;
-    private final Property<String> storePass;
-    private final Property<String> keyPass;
-    private final Property<String> keyStoreData;
+    // Secrets are only read through the keys' value source, so the configuration cache never stores them with the task
+    private final transient Property<String> storePass;
+    private final transient Property<String> keyPass;
+    private final transient Property<String> keyStoreData;
     private final Property<File> keyStoreFile;
     private final Property<Boolean> verbose;
     private final Property<Boolean> preserveLastModified;
@@ -58,81 +68,121 @@ public class SignTask implements PatternFilterable {
     private final Property<String> storeType;
     private final Property<String> providerClass;
     private final Property<String> providerArg;
+    private final Property<Boolean> useAnt;
+    private final Property<Integer> threads;
+    private final Property<Boolean> incremental;
+    private final Property<String> workerIsolation;
+    private final Property<Integer> tsaTimeout;
+    private final Property<Integer> tsaRetries;
+    private final Property<File> tsaCache;
+    private final Property<Boolean> reproducible;
+    private final Property<String> digestAlg;
+    private final Property<String> sigAlg;
+    private final Property<File> agent;
+    private final Provider<KeyCache> keyCache;
+    private final Provider<SignSummary> summary;
+    private final Provider<RegularFile> report;
     private final PatternSet patternSet = new PatternSet();
+    private final transient ListProperty<SignerSpec> signers;
+    private final Provider<Integer> signerCount;
+    private final Provider<List<KeySource>> keys;
+    private final Set<String> nested = new LinkedHashSet<>();
 
-    @SuppressWarnings("serial")
     SignTask(GradleJarSignerExtension ext, Zip parent, Closure<SignTask> config) {
-        this.ext = ext;
         this.parent = parent;
-        this.config = config;
-        if (this.config != null)
-            this.config.setDelegate(this);
-
-        ObjectFactory objs = this.parent.getProject().getObjects();
-
-        this.alias = objs.property(String.class);
-        this.storePass = objs.property(String.class);
-        this.keyPass = objs.property(String.class);
-        this.keyStoreData = objs.property(String.class);
-        this.keyStoreFile = objs.property(File.class);
-        this.verbose = objs.property(Boolean.class);
-        this.preserveLastModified = objs.property(Boolean.class);
-        this.tsaUrl = objs.property(String.class);
-        this.storeType = objs.property(String.class);
-        this.providerClass = objs.property(String.class);
-        this.providerArg = objs.property(String.class);
-
-        this.parent.configure(new Closure<Object>(parent) {
-            @SuppressWarnings("unused")
-            public Object doCall() {
-                SignTask.this.ext.fill(SignTask.this);
-                if (SignTask.this.config != null)
-                    SignTask.this.config.call();
-                return SignTask.this.addProperties();
-            }
+        this.workers = ext.getWorkers();
+
+        // The extension's settings are conventions, so it doesn't matter if they're set before or after the task
+        Project project = this.parent.getProject();
+        ObjectFactory objs = project.getObjects();
+        this.alias = objs.property(String.class).convention(ext.alias);
+        this.storePass = objs.property(String.class).convention(ext.storePass);
+        this.keyPass = objs.property(String.class).convention(ext.keyPass);
+        this.keyStoreData = objs.property(String.class).convention(ext.keyStoreData);
+        this.keyStoreFile = objs.property(File.class).convention(ext.keyStoreFile);
+        this.verbose = objs.property(Boolean.class).convention(ext.verbose);
+        this.preserveLastModified = objs.property(Boolean.class).convention(ext.preserveLastModified);
+        this.tsaUrl = objs.property(String.class).convention(ext.tsaUrl);
+        this.storeType = objs.property(String.class).convention(ext.storeType);
+        this.providerClass = objs.property(String.class).convention(ext.providerClass);
+        this.providerArg = objs.property(String.class).convention(ext.providerArg);
+        this.useAnt = objs.property(Boolean.class).convention(ext.useAnt);
+        this.threads = objs.property(Integer.class).convention(ext.threads);
+        this.incremental = objs.property(Boolean.class).convention(ext.incremental);
+        this.workerIsolation = objs.property(String.class).convention(ext.workerIsolation);
+        this.tsaTimeout = objs.property(Integer.class).convention(ext.tsaTimeout);
+        this.tsaRetries = objs.property(Integer.class).convention(ext.tsaRetries);
+        this.tsaCache = objs.property(File.class).convention(ext.tsaCache);
+        this.reproducible = objs.property(Boolean.class).convention(ext.reproducible);
+        this.digestAlg = objs.property(String.class).convention(ext.digestAlg);
+        this.sigAlg = objs.property(String.class).convention(ext.sigAlg);
+        this.agent = objs.property(File.class).convention(ext.agent);
+        this.signers = objs.listProperty(SignerSpec.class);
+        this.signerCount = this.signers.map(List::size);
+        this.keys = project.getProviders().of(SignerKeys.class, spec -> {
+            SignerKeys.Parameters params = spec.getParameters();
+            params.getAlias().set(this.alias);
+            params.getStorePass().set(this.storePass);
+            params.getKeyPass().set(this.keyPass);
+            params.getKeyStoreData().set(this.keyStoreData);
+            params.getKeyStoreFile().set(this.keyStoreFile);
+            params.getStoreType().set(this.storeType);
+            params.getProviderClass().set(this.providerClass);
+            params.getProviderArg().set(this.providerArg);
+            params.getAgent().set(this.agent);
+            params.getSigAlg().set(this.sigAlg);
+            params.getSigners().set(this.signers);
         });
-        this.parent.doLast(this::signSafe);
+        this.keyCache = KeyCache.register(project);
+        this.summary = SignSummary.register(project);
+        this.report = project.getLayout().getBuildDirectory().file("jarSigner/metrics/" + this.parent.getName() + ".json");
+
+        if (config != null) {
+            config.setDelegate(this);
+            config.call();
+        }
+        addProperties();
+        this.parent.doLast(new SignAction(this));
     }
 
-    private Object addProperties() {
+    private void addProperties() {
+        // Only things that change the signed jar are inputs. The signer is identified by its certificate,
+        // so the keystore and passwords never end up in cache keys, and the output can be shared between machines.
         TaskInputs in = this.parent.getInputs();
         if (!patternSet.isEmpty()) {
             in.property("signJar.patternSet.excludes", patternSet.getExcludes());
             in.property("signJar.patternSet.includes", patternSet.getIncludes());
         }
-        in.property("signJar.alias", this.alias).optional(true);
-        in.property("signJar.storePass", this.storePass).optional(true);
-        in.property("signJar.keyPass", this.keyPass).optional(true);
-        in.property("signJar.keyStoreData", this.keyStoreData).optional(true);
-        in.property("signJar.verbose", this.verbose).optional(true);
-        in.property("signJar.preserveLastModified", this.preserveLastModified).optional(true);
+        in.property("signJar.signer", this.keys.map(new Fingerprints(this.keyCache))).optional(true);
+        in.property("signJar.digest", this.digestAlg.orElse(JarSigner.DEFAULT_DIGEST));
         in.property("signJar.tsaUrl", this.tsaUrl).optional(true);
-        in.property("signJar.storeType", this.storeType).optional(true);
-        in.property("signJar.providerClass", this.providerClass).optional(true);
-        in.property("signJar.providerArg", this.providerArg).optional(true);
-        if (this.keyStoreFile.isPresent())
-            in.file(this.keyStoreFile);
-        return null;
+        in.property("signJar.useAnt", this.useAnt).optional(true);
+        in.property("signJar.reproducible", this.reproducible).optional(true);
+        if (!this.nested.isEmpty())
+            in.property("signJar.nested", this.nested);
+        this.parent.usesService(this.keyCache);
+        this.parent.usesService(this.summary);
+
+        // Archive tasks aren't cached by default as they're cheap to recreate, signed ones aren't
+        this.parent.getOutputs().cacheIf("Signed archives are expensive to recreate", new HasKeys(this));
     }
 
-    private <T extends Task> void signSafe(T task) {
+    private void signSafe(Task task) {
         try {
-            if (hasEnoughInfo())
-                this.sign(task);
-            else
+            List<KeySource> keys = this.keys.get();
+            if (keys.isEmpty()) {
                 task.getLogger().warn("Jar will be unsigned, missing key information");
+                return;
+            }
+            int expected = this.signerCount.get() + 1;
+            if (keys.size() != expected)
+                task.getLogger().warn("Jar will only be signed with {} of {} keys, missing key information", keys.size(), expected);
+            this.sign(task, keys);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private boolean hasEnoughInfo() {
-        return this.alias.isPresent() &&
-               this.storePass.isPresent() &&
-               this.keyPass.isPresent() &&
-               (this.keyStoreData.isPresent() || this.keyStoreFile.isPresent());
-    }
-
     @SuppressWarnings("unchecked")
     private static File getTaskArchiveFile(Zip task) {
         try {
@@ -154,29 +204,140 @@ public class SignTask implements PatternFilterable {
         }
     }
 
-    private <T extends Task> void sign(T task) throws IOException {
-        final Map<String, Entry<byte[], Long>> ignoredStuff = new HashMap<>();
-
-        File tmp = this.parent.getTemporaryDir();
-        File output = getTaskArchiveFile(this.parent);
+    private void sign(Task task, List<KeySource> keys) throws IOException {
+        File tmp = task.getTemporaryDir();
+        File output = getTaskArchiveFile((Zip)task);
         File original = new File(tmp, output.getName() + ".original");
         Files.move(output.toPath(), original.toPath(), StandardCopyOption.REPLACE_EXISTING);
 
-        File input = original;
-        if (!patternSet.isEmpty()) {
-            input = new File(tmp, input.getName() + ".unsigned");
-            processInputJar(original, input, ignoredStuff);
+        if (this.useAnt.isPresent() && this.useAnt.get()) {
+            if (!this.nested.isEmpty())
+                throw new IllegalStateException("Nested archives can only be signed by the built in signer, useAnt must be false");
+            for (KeySource key : keys) {
+                if (key.agent != null)
+                    throw new IllegalStateException("Keys held by a signing agent can only be used by the built in signer, useAnt must be false");
+            }
+            SignReport report = signAnt(task, tmp, original, output, keys);
+            report.writtenBytes = output.length();
+            report.write(this.report.get().getAsFile());
+            this.summary.get().add(report);
+            return;
+        }
+
+        // The signing itself happens on a worker, which lets it run in an isolated class loader
+        String isolation = this.workerIsolation.getOrElse("none");
+        WorkQueue queue;
+        if ("none".equals(isolation))
+            queue = this.workers.noIsolation();
+        else if ("classloader".equals(isolation))
+            queue = this.workers.classLoaderIsolation();
+        else
+            throw new IllegalArgumentException("Unknown worker isolation '" + isolation + "', must be either 'none' or 'classloader'");
+
+        long start = System.nanoTime();
+        Set<String> unsigned = getUnsigned(original, this.patternSet, new File(tmp, "entries"));
+        long filterTime = System.nanoTime() - start;
+        queue.submit(SignWorker.class, params -> {
+            params.getInput().set(original);
+            params.getOutput().set(output);
+            if (this.incremental.getOrElse(false))
+                params.getIndex().set(new File(tmp, output.getName() + ".digests"));
+            params.getUnsigned().set(unsigned);
+            params.getNested().set(this.nested);
+            params.getFilterTime().set(filterTime);
+            params.getReport().set(this.report);
+            // Our classes are different in an isolated class loader, so it can't share the cache or summary
+            if ("none".equals(isolation)) {
+                params.getKeyCache().set(this.keyCache);
+                params.getSummary().set(this.summary);
+            }
+            params.getKeys().set(keys);
+            params.getVerbose().set(this.verbose);
+            params.getPreserveLastModified().set(this.preserveLastModified);
+            params.getThreads().set(this.threads.getOrElse(Runtime.getRuntime().availableProcessors()));
+            params.getTsaUrl().set(this.tsaUrl);
+            params.getTsaTimeout().set(this.tsaTimeout.getOrElse(30));
+            params.getTsaRetries().set(this.tsaRetries.getOrElse(3));
+            if (this.tsaCache.isPresent())
+                params.getTsaCache().set(this.tsaCache.get());
+            params.getReproducible().set(this.reproducible);
+            params.getDigestAlg().set(this.digestAlg.orElse(JarSigner.DEFAULT_DIGEST));
+        });
+        // The archive was moved away, so anything after us in the task, or depending on it, needs the signed one to exist
+        queue.await();
+    }
+
+    // Specs can't be passed to workers, so resolve which entries they exclude here. This only reads the central directory,
+    // unless a custom spec needs an entry's file, which is extracted to extractDir and deleted once the jar is filtered.
+    // Also used by SignBenchmark, so it measures the same thing.
+    static Set<String> getUnsigned(File jar, PatternSet patterns, File extractDir) throws IOException {
+        Set<String> ret = new HashSet<>();
+        if (patterns.isEmpty())
+            return ret;
+
+        EntryFilter filter = EntryFilter.of(patterns, extractDir);
+        try (ZipArchive zip = ZipArchive.open(jar)) {
+            for (ZipArchive.Entry entry : zip.getEntries()) {
+                if (!entry.isDirectory() && !filter.isSatisfiedBy(zip, entry))
+                    ret.add(entry.name);
+            }
+        } finally {
+            delete(extractDir);
+        }
+        return ret;
+    }
+
+    // Ant loads the keys, digests, signs and writes the jar in one step, so the report can only time it as a whole
+    private SignReport signAnt(Task task, File tmp, File original, File output, List<KeySource> keys) throws IOException {
+        SignReport report = new SignReport(output.getName());
+        report.ant = true;
+        long start = System.nanoTime();
+
+        if (patternSet.isEmpty()) {
+            runAnt(task, tmp, original, output, keys);
+            report.antSignJar = System.nanoTime() - start;
+            report.total = report.antSignJar;
+            return report;
+        }
+
+        // Excluded entries are kept as references into the original jar, and copied from it once Ant is done
+        try (ZipArchive zip = ZipArchive.open(original)) {
+            File input = new File(tmp, original.getName() + ".unsigned");
+            List<ZipArchive.Entry> ignoredStuff = processInputJar(zip, input, new File(tmp, "entries"));
+            report.filter = System.nanoTime() - start;
+
+            long phase = System.nanoTime();
+            File signed = ignoredStuff.isEmpty() ? output : new File(tmp, input.getName() + ".signed");
+            runAnt(task, tmp, input, signed, keys);
+            report.antSignJar = System.nanoTime() - phase;
+
+            phase = System.nanoTime();
             if (!ignoredStuff.isEmpty())
-                output = new File(tmp, input.getName() + ".signed");
+                writeOutputJar(signed, output, zip, ignoredStuff);
+            report.write = System.nanoTime() - phase;
         }
+        report.total = System.nanoTime() - start;
+        return report;
+    }
 
+    // Ant signs with one key at a time, so each signer adds its signature to the last one's output
+    private void runAnt(Task task, File tmp, File input, File output, List<KeySource> keys) throws IOException {
+        File current = input;
+        for (int x = 0; x < keys.size(); x++) {
+            File next = x == keys.size() - 1 ? output : new File(tmp, input.getName() + ".signed" + x);
+            runAnt(task, tmp, current, next, keys.get(x));
+            current = next;
+        }
+    }
+
+    private void runAnt(Task task, File tmp, File input, File output, KeySource key) throws IOException {
         File keyStore;
-        if (this.keyStoreFile.isPresent()) {
-            if (this.keyStoreData.isPresent())
+        if (key.keyStoreFile != null) {
+            if (key.keyStoreData != null)
                 throw new IllegalStateException("Both KeyStoreFile and KeyStoreData can not be set at the same time");
-            keyStore = this.keyStoreFile.get();
-        } else if (this.keyStoreData.isPresent()) {
-            byte[] data = Base64.getDecoder().decode(this.keyStoreData.get().getBytes(StandardCharsets.UTF_8));
+            keyStore = key.keyStoreFile;
+        } else if (key.keyStoreData != null) {
+            byte[] data = Base64.getDecoder().decode(key.keyStoreData.getBytes(StandardCharsets.UTF_8));
             keyStore = new File(tmp, "keystore");
             Files.write(keyStore.toPath(), data);
         } else {
@@ -184,116 +345,98 @@ public class SignTask implements PatternFilterable {
         }
 
         Map<String, String> map = new HashMap<>();
-        map.put("alias", this.alias.get());
-        map.put("storePass", this.storePass.get());
+        map.put("alias", key.alias);
+        map.put("storePass", key.storePass);
         map.put("jar", input.getAbsolutePath());
         map.put("signedJar", output.getAbsolutePath());
         map.put("keyStore", keyStore.getAbsolutePath());
-        if (this.keyPass.isPresent())
-            map.put("keypass", this.keyPass.get());
+        map.put("keypass", key.keyPass);
         if (this.verbose.isPresent() && this.verbose.get())
             map.put("verbose", Boolean.TRUE.toString());
         if (this.preserveLastModified.isPresent() && this.preserveLastModified.get())
             map.put("preservelastmodified", Boolean.TRUE.toString());
         if (this.tsaUrl.isPresent())
             map.put("tsaurl", this.tsaUrl.get());
-        if (this.storeType.isPresent())
-            map.put("storetype", this.storeType.get());
-        if (this.providerClass.isPresent())
-            map.put("providerclass", this.providerClass.get());
-        if (this.providerArg.isPresent())
-            map.put("providerarg", this.providerArg.get());
+        if (this.digestAlg.isPresent())
+            map.put("digestalg", this.digestAlg.get());
+        if (key.sigAlg != null)
+            map.put("sigalg", key.sigAlg);
+        if (key.storeType != null)
+            map.put("storetype", key.storeType);
+        if (key.providerClass != null)
+            map.put("providerclass", key.providerClass);
+        if (key.providerArg != null)
+            map.put("providerarg", key.providerArg);
 
         try {
-            this.parent.getProject().getAnt().invokeMethod("signjar", map);
+            task.getAnt().invokeMethod("signjar", map);
         } finally {
-            if (!this.keyStoreFile.isPresent())
+            if (key.keyStoreFile == null)
                 keyStore.delete();
         }
+    }
 
-        if (!ignoredStuff.isEmpty())
-            writeOutputJar(output, getTaskArchiveFile(this.parent), ignoredStuff);
-    }
-
-    private void processInputJar(File input, File output, final Map<String, Entry<byte[], Long>> unsigned) throws IOException {
-        final Spec<FileTreeElement> spec = patternSet.getAsSpec();
-
-        output.getParentFile().mkdirs();
-        try (JarOutputStream outs = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(output)))){
-            this.parent.getProject().zipTree(input).visit(new FileVisitor() {
-                @Override
-                public void visitDir(FileVisitDetails details) {
-                    try {
-                        String path = details.getPath();
-                        ZipEntry entry = new ZipEntry(path.endsWith("/") ? path : path + "/");
-                        outs.putNextEntry(entry);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+    private List<ZipArchive.Entry> processInputJar(ZipArchive input, File output, File extractDir) throws IOException {
+        final EntryFilter filter = EntryFilter.of(patternSet, extractDir);
+        final List<ZipArchive.Entry> unsigned = new ArrayList<>();
 
-                @Override
-                @SuppressWarnings("unchecked")
-                public void visitFile(FileVisitDetails details) {
-                    try {
-                        if (spec.isSatisfiedBy(details)) {
-                            ZipEntry entry = new ZipEntry(details.getPath());
-                            entry.setTime(details.getLastModified());
-                            outs.putNextEntry(entry);
-                            details.copyTo(outs);
-                            outs.closeEntry();
-                        } else {
-                            InputStream stream = details.open();
-                            ByteArrayOutputStream tmp = new ByteArrayOutputStream(stream.available());
-                            byte[] buf = new byte[0x100];
-                            int len;
-                            while ((len = stream.read(buf)) != -1)
-                                tmp.write(buf, 0, len);
-
-                            byte[] data = tmp.toByteArray();
-                            unsigned.put(details.getPath(), new MapEntry(data, details.getLastModified()));
-                            stream.close();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+        try (ZipWriter outs = new ZipWriter(output)) {
+            for (ZipArchive.Entry entry : input.getEntries()) {
+                if (entry.isDirectory() || filter.isSatisfiedBy(input, entry))
+                    outs.copy(input, entry);
+                else
+                    unsigned.add(entry);
+            }
+            outs.finish();
+        } finally {
+            delete(extractDir);
         }
+        return unsigned;
     }
 
-    private void writeOutputJar(File signedJar, File outputJar, Map<String, Entry<byte[], Long>> unsigned) throws IOException {
-        outputJar.getParentFile().mkdirs();
-
-        JarOutputStream outs = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(outputJar)));
-
-        byte[] buf = new byte[0x100];
-        ZipFile base = new ZipFile(signedJar);
-        for (ZipEntry e : Collections.list(base.entries())) {
-            if (e.isDirectory()) {
-                outs.putNextEntry(e);
-            } else {
-                ZipEntry n = new ZipEntry(e.getName());
-                n.setTime(e.getTime());
-                outs.putNextEntry(n);
-                InputStream in = base.getInputStream(e);
-                int len;
-                while ((len = in.read(buf)) != -1)
-                    outs.write(buf, 0, len);
-                outs.closeEntry();
-            }
+    private static void delete(File dir) throws IOException {
+        if (!dir.exists())
+            return;
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
         }
-        base.close();
-
-        for (Entry<String, Entry<byte[], Long>> e : unsigned.entrySet()) {
-            ZipEntry n = new ZipEntry(e.getKey());
-            n.setTime(e.getValue().getValue());
-            outs.putNextEntry(n);
-            outs.write(e.getValue().getKey());
-            outs.closeEntry();
+    }
+
+    private void writeOutputJar(File signedJar, File outputJar, ZipArchive original, List<ZipArchive.Entry> unsigned) throws IOException {
+        try (ZipArchive base = ZipArchive.open(signedJar);
+             ZipWriter outs = new ZipWriter(outputJar)) {
+            for (ZipArchive.Entry e : base.getEntries())
+                outs.copy(base, e);
+
+            for (ZipArchive.Entry e : unsigned)
+                outs.copy(original, e);
+            outs.finish();
         }
+    }
 
-        outs.close();
+    /**
+     * Signs the jar with another key as well, for example to ship jars signed with both an old and a new certificate.
+     * Entries are only digested once, and the jar is written once with a signature file and block for every key.
+     * Keystore settings that aren't set on the signer are taken from this task.
+     *
+     * @param cfg Configuration of the additional signer
+     */
+    public SignerSpec signer(Closure<SignerSpec> cfg) {
+        SignerSpec spec = new SignerSpec();
+        this.parent.getProject().configure(spec, cfg);
+        this.signers.add(spec);
+        return spec;
+    }
+
+    /**
+     * Signs archives inside the jar that match the patterns before the jar itself, for example {@code META-INF/jarjar/*.jar}.
+     * Archives nested in those are signed too if they match. They're signed in memory, several at a time, with the same
+     * keys and settings as the jar.
+     *
+     * @param patterns Ant style patterns of the entries to sign
+     */
+    public void nested(String... patterns) {
+        this.nested.addAll(Arrays.asList(patterns));
     }
 
     public void setAlias(String value) {
@@ -304,10 +447,23 @@ public class SignTask implements PatternFilterable {
         this.storePass.set(value);
     }
 
+    /**
+     * Takes the keystore password from a provider, like {@code providers.environmentVariable}, which is only read
+     * when the jar is signed. Unlike a plain value it isn't stored in the configuration cache.
+     */
+    public void setStorePass(Provider<String> value) {
+        this.storePass.set(value);
+    }
+
     public void setKeyPass(String value) {
         this.keyPass.set(value);
     }
 
+    /** Takes the key password from a provider, see {@link #setStorePass(Provider)}. */
+    public void setKeyPass(Provider<String> value) {
+        this.keyPass.set(value);
+    }
+
     public void setVerbose(boolean value) {
         this.verbose.set(value);
     }
@@ -320,6 +476,37 @@ public class SignTask implements PatternFilterable {
         this.tsaUrl.set(value);
     }
 
+    /**
+     * How long to wait for the timestamp authority to accept the connection and to respond.
+     * Defaults to 30 seconds.
+     *
+     * @param value Timeout in seconds
+     */
+    public void setTsaTimeout(int value) {
+        this.tsaTimeout.set(value);
+    }
+
+    /**
+     * How many times a timestamp request that failed because of a network or server error is retried.
+     * Each retry waits twice as long as the last one, starting at a second. Defaults to 3.
+     *
+     * @param value Number of retries, 0 to fail on the first error
+     */
+    public void setTsaRetries(int value) {
+        this.tsaRetries.set(value);
+    }
+
+    /**
+     * Directory to keep timestamp tokens in, keyed by the signature they were issued for.
+     * Signing identical content with a key that produces the same signature, like RSA, then reuses the token
+     * instead of asking the timestamp authority again.
+     *
+     * @param value Cache directory, unset to not cache tokens
+     */
+    public void setTsaCache(File value) {
+        this.tsaCache.set(value);
+    }
+
     public void setStoreType(String value) {
         this.storeType.set(value);
     }
@@ -332,9 +519,92 @@ public class SignTask implements PatternFilterable {
         this.providerArg.set(value);
     }
 
+    /**
+     * Signs using Ant's signjar task instead of the built in signer.
+     *
+     * @param value True to use Ant
+     */
+    public void setUseAnt(boolean value) {
+        this.useAnt.set(value);
+    }
+
+    /**
+     * The number of threads used to digest the entries of large jars.
+     * Defaults to the number of available processors.
+     *
+     * @param value Number of threads, 1 to digest on the task's thread
+     */
+    public void setThreads(int value) {
+        this.threads.set(value);
+    }
+
+    /**
+     * Remembers the digest of every entry in the task's temporary directory, so that the next time
+     * the jar is signed only entries whose CRC or size changed have to be digested again.
+     *
+     * @param value True to reuse digests between runs
+     */
+    public void setIncremental(boolean value) {
+        this.incremental.set(value);
+    }
+
+    /**
+     * How the work item that signs the jar is isolated from the build.
+     * {@code none}, the default, runs it in the plugin's class loader and shares unlocked keys with other jars.
+     * {@code classloader} runs it in its own class loader, which has to load the keystore again.
+     *
+     * @param value Either {@code none} or {@code classloader}
+     */
+    public void setWorkerIsolation(String value) {
+        this.workerIsolation.set(value);
+    }
+
+    /**
+     * Makes signing deterministic, so the same jar and key always give the same signed jar.
+     * Entries and manifest sections are sorted by name, every entry gets the same constant time,
+     * and timestamp extra fields are removed. Only the native signer supports this, and the signature
+     * algorithm has to be deterministic, like RSA. A timestamp from a TSA will still differ.
+     *
+     * @param value True to produce reproducible jars
+     */
+    public void setReproducible(boolean value) {
+        this.reproducible.set(value);
+    }
+
+    /**
+     * The digest algorithm used for entries, the manifest and the signature file, like jarsigner's {@code -digestalg}.
+     * Defaults to SHA-256. SHA-512 is usually faster on 64-bit machines without SHA instructions in the CPU.
+     *
+     * @param value Either {@code SHA-256}, {@code SHA-384} or {@code SHA-512}
+     */
+    public void setDigestAlg(String value) {
+        this.digestAlg.set(value);
+    }
+
+    /**
+     * The signature algorithm, like jarsigner's {@code -sigalg}. It has to fit the key, for example
+     * {@code SHA512withRSA} for RSA keys or {@code Ed25519} for EdDSA ones. Defaults to one combining the key's
+     * type with the digest algorithm. Signers with a different type of key can set their own, see {@link SignerSpec#setSigAlg(String)}.
+     *
+     * @param value Signature algorithm name
+     */
+    public void setSigAlg(String value) {
+        this.sigAlg.set(value);
+    }
+
+    /**
+     * Signs with keys held by a {@link SignAgent} instead of loading a keystore, so only the alias is needed.
+     * For RSA and EC keys only the digest of the signature file is sent to the agent. Signers with their own keystore still use it.
+     *
+     * @param value File the agent wrote when it started, {@code ~/.gradle/jarSigner/agent.properties} unless it was given another
+     */
+    public void setAgent(File value) {
+        this.agent.set(value);
+    }
+
     /**
      * A base64 encode string containing the keystore data.
-     * This will be written to a temporary file and then deleted after the task is run.
+     * It is only kept in memory, unless signing with Ant which needs it written to a temporary file.
      *
      * @param value Base64 encode keystore
      */
@@ -342,6 +612,11 @@ public class SignTask implements PatternFilterable {
         this.keyStoreData.set(value);
     }
 
+    /** Takes the base64 encoded keystore from a provider, see {@link #setStorePass(Provider)}. */
+    public void setKeyStoreData(Provider<String> value) {
+        this.keyStoreData.set(value);
+    }
+
     public void setKeyStoreFile(File value) {
         this.keyStoreFile.set(value);
     }
@@ -407,4 +682,64 @@ public class SignTask implements PatternFilterable {
     public PatternFilterable setIncludes(Iterable<String> arg0) {
         return patternSet.setIncludes(arg0);
     }
+
+    /** Task action that signs the archive, a class instead of a lambda so it can be stored in the configuration cache. */
+    private static final class SignAction implements Action<Task> {
+        private final SignTask sign;
+
+        private SignAction(SignTask sign) {
+            this.sign = sign;
+        }
+
+        @Override
+        public void execute(Task task) {
+            this.sign.signSafe(task);
+        }
+    }
+
+    /**
+     * SHA-256 fingerprints of the signers' certificates, the signer input. Only computed when the task's inputs are,
+     * as it's mapped from the keys' value source, so the keystore isn't loaded while configuring. Up to date checks
+     * only read the certificates, so they need the keystore and its password, or the agent, but never unlock a key.
+     */
+    private static final class Fingerprints implements Transformer<String, List<KeySource>> {
+        private final Provider<KeyCache> keyCache;
+
+        private Fingerprints(Provider<KeyCache> keyCache) {
+            this.keyCache = keyCache;
+        }
+
+        @Override
+        public @Nullable String transform(List<KeySource> keys) {
+            if (keys.isEmpty())
+                return null;
+
+            List<String> ret = new ArrayList<>(keys.size());
+            try {
+                for (KeySource key : keys) {
+                    String fingerprint = key.getFingerprint(this.keyCache.get());
+                    ret.add(key.sigAlg == null ? fingerprint : fingerprint + '/' + key.sigAlg);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Could not load the signing keys", e);
+            }
+            return String.join(",", ret);
+        }
+    }
+
+    /** Unsigned archives are as cheap as any other, so they're only cached when there's a key to sign with. */
+    private static final class HasKeys implements Spec<Task> {
+        private final SignTask sign;
+
+        private HasKeys(SignTask sign) {
+            this.sign = sign;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(Task task) {
+            return !this.sign.keys.get().isEmpty();
+        }
+    }
 }
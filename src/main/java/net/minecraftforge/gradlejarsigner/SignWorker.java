@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.util.PatternSet;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Signs a single jar as a Gradle work item. The task waits for it, but Gradle can run other work in the meantime
+ * and jars from different projects can be signed at the same time.
+ */
+public abstract class SignWorker implements WorkAction<SignWorker.Parameters> {
+    public interface Parameters extends WorkParameters {
+        RegularFileProperty getInput();
+        RegularFileProperty getOutput();
+        /** Digest index, see {@link SignTask#setIncremental(boolean)} */
+        RegularFileProperty getIndex();
+        /** Names of entries the task's filters excluded from the signature */
+        SetProperty<String> getUnsigned();
+        /** Patterns of archives inside the jar to sign first, see {@link SignTask#nested(String...)} */
+        SetProperty<String> getNested();
+        /** Nanoseconds the task spent resolving {@link #getUnsigned()} */
+        Property<Long> getFilterTime();
+        /** Where to write the {@link SignReport} as JSON */
+        RegularFileProperty getReport();
+        /** Only set when the worker shares our class loader */
+        Property<KeyCache> getKeyCache();
+        /** Only set when the worker shares our class loader */
+        Property<SignSummary> getSummary();
+        /** Every key the jar is signed with */
+        ListProperty<KeySource> getKeys();
+        Property<Boolean> getVerbose();
+        Property<Boolean> getPreserveLastModified();
+        Property<Integer> getThreads();
+        Property<String> getTsaUrl();
+        Property<Integer> getTsaTimeout();
+        Property<Integer> getTsaRetries();
+        DirectoryProperty getTsaCache();
+        Property<Boolean> getReproducible();
+        Property<String> getDigestAlg();
+    }
+
+    @Override
+    public void execute() {
+        Parameters params = getParameters();
+        File input = params.getInput().get().getAsFile();
+        File output = params.getOutput().get().getAsFile();
+
+        try {
+            long start = System.nanoTime();
+            KeyCache cache = params.getKeyCache().getOrNull();
+            Map<String, SigningKey> keys = new LinkedHashMap<>();
+            Map<String, String> sigAlgs = new HashMap<>();
+            long keyLoad = 0;
+            for (KeySource source : params.getKeys().get()) {
+                SigningKey key = source.load(cache);
+                keys.put(source.alias, key);
+                keyLoad += key.loadTime;
+                if (source.sigAlg != null)
+                    sigAlgs.put(source.alias, source.sigAlg);
+            }
+            long keyTime = System.nanoTime() - start;
+
+            Set<String> unsigned = params.getUnsigned().get();
+            Spec<String> filter = unsigned.isEmpty() ? null : name -> !unsigned.contains(name);
+            File index = params.getIndex().isPresent() ? params.getIndex().get().getAsFile() : null;
+            Set<String> patterns = params.getNested().get();
+            EntryFilter nested = patterns.isEmpty() ? null : EntryFilter.of(new PatternSet().include(patterns));
+
+            Logger logger = Logging.getLogger(SignWorker.class);
+            TsaClient tsa = !params.getTsaUrl().isPresent() ? null : new TsaClient(params.getTsaUrl().get(), params.getTsaTimeout().get() * 1000,
+                params.getTsaRetries().get(), params.getTsaCache().isPresent() ? params.getTsaCache().get().getAsFile() : null, logger);
+
+            SignReport report = new JarSigner(keys, logger, params.getVerbose().getOrElse(false), params.getThreads().get(), tsa, params.getReproducible().getOrElse(false),
+                params.getDigestAlg().get(), sigAlgs).sign(input, output, filter, index, nested);
+            report.setup(keyTime, keyLoad, params.getFilterTime().getOrElse(0L));
+            if (params.getReport().isPresent())
+                report.write(params.getReport().get().getAsFile());
+            if (params.getSummary().isPresent())
+                params.getSummary().get().add(report);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to sign " + output, e);
+        }
+
+        if (params.getPreserveLastModified().getOrElse(false))
+            output.setLastModified(input.lastModified());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resolves the keys a task signs with: its own key followed by any additional signers, skipping the ones that are
+ * missing information. This is a value source so the configuration cache stores the settings it's made from instead
+ * of its result, and nothing, like a keystore password from an environment variable, is read until the jar is signed.
+ */
+public abstract class SignerKeys implements ValueSource<List<KeySource>, SignerKeys.Parameters> {
+    public interface Parameters extends ValueSourceParameters {
+        Property<String> getAlias();
+        Property<String> getStorePass();
+        Property<String> getKeyPass();
+        Property<String> getKeyStoreData();
+        Property<File> getKeyStoreFile();
+        Property<String> getStoreType();
+        Property<String> getProviderClass();
+        Property<String> getProviderArg();
+        Property<File> getAgent();
+        Property<String> getSigAlg();
+        ListProperty<SignerSpec> getSigners();
+    }
+
+    @Override
+    public List<KeySource> obtain() {
+        Parameters params = getParameters();
+        String storePass = params.getStorePass().getOrNull();
+        String keyPass = params.getKeyPass().getOrNull();
+        String keyStoreData = params.getKeyStoreData().getOrNull();
+        File keyStoreFile = params.getKeyStoreFile().getOrNull();
+        String storeType = params.getStoreType().getOrNull();
+        String providerClass = params.getProviderClass().getOrNull();
+        String providerArg = params.getProviderArg().getOrNull();
+        File agent = params.getAgent().getOrNull();
+        String sigAlg = params.getSigAlg().getOrNull();
+        List<SignerSpec> signers = params.getSigners().get();
+
+        List<KeySource> ret = new ArrayList<>(signers.size() + 1);
+        String alias = params.getAlias().getOrNull();
+        KeySource main = agent != null && alias != null ? new KeySource(agent, alias, sigAlg)
+            : getKey(alias, storePass, keyPass, keyStoreData, keyStoreFile, storeType, providerClass, providerArg, sigAlg);
+        if (main != null)
+            ret.add(main);
+
+        for (SignerSpec spec : signers) {
+            String specSigAlg = spec.sigAlg != null ? spec.sigAlg : sigAlg;
+            // A signer with its own keystore shouldn't inherit the other way of specifying one from the task, or the agent
+            boolean ownStore = spec.keyStoreData != null || spec.keyStoreFile != null;
+            if (!ownStore && agent != null) {
+                if (spec.alias != null)
+                    ret.add(new KeySource(agent, spec.alias, specSigAlg));
+                continue;
+            }
+
+            KeySource key = getKey(spec.alias,
+                spec.storePass != null ? spec.storePass : storePass,
+                spec.keyPass != null ? spec.keyPass : keyPass,
+                ownStore ? spec.keyStoreData : keyStoreData,
+                ownStore ? spec.keyStoreFile : keyStoreFile,
+                spec.storeType != null ? spec.storeType : storeType,
+                spec.providerClass != null ? spec.providerClass : providerClass,
+                spec.providerArg != null ? spec.providerArg : providerArg,
+                specSigAlg);
+            if (key != null)
+                ret.add(key);
+        }
+        return ret;
+    }
+
+    private static @Nullable KeySource getKey(String alias, String storePass, String keyPass, String keyStoreData, File keyStoreFile,
+            String storeType, String providerClass, String providerArg, String sigAlg) {
+        if (alias == null || storePass == null || keyPass == null || (keyStoreData == null && keyStoreFile == null))
+            return null;
+        return new KeySource(keyStoreFile, keyStoreData, storeType, providerClass, providerArg, storePass, alias, keyPass, sigAlg);
+    }
+}
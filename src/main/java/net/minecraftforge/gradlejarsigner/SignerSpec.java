@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * An additional key to sign a jar with, see {@link SignTask#signer(groovy.lang.Closure)}.
+ * Anything that isn't set is taken from the task, so a second alias in the same keystore only needs its alias and key password.
+ */
+public class SignerSpec implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    String alias;
+    String storePass;
+    String keyPass;
+    String keyStoreData;
+    File keyStoreFile;
+    String storeType;
+    String providerClass;
+    String providerArg;
+    String sigAlg;
+
+    public void setAlias(String value) {
+        this.alias = value;
+    }
+
+    public void setStorePass(String value) {
+        this.storePass = value;
+    }
+
+    public void setKeyPass(String value) {
+        this.keyPass = value;
+    }
+
+    /**
+     * A base64 encode string containing the keystore data.
+     *
+     * @param value Base64 encode keystore
+     */
+    public void setKeyStoreData(String value) {
+        this.keyStoreData = value;
+    }
+
+    public void setKeyStoreFile(File value) {
+        this.keyStoreFile = value;
+    }
+
+    public void setStoreType(String value) {
+        this.storeType = value;
+    }
+
+    public void setProviderClass(String value) {
+        this.providerClass = value;
+    }
+
+    public void setProviderArg(String value) {
+        this.providerArg = value;
+    }
+
+    /**
+     * The signature algorithm for this signer's key, defaults to the task's. Needed when the signers have
+     * different types of keys, as one algorithm can't fit both an RSA and an EC key.
+     *
+     * @param value Signature algorithm name, like {@code SHA512withECDSA}
+     */
+    public void setSigAlg(String value) {
+        this.sigAlg = value;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+
+import org.jetbrains.annotations.Nullable;
+
+/** The private key and certificate chain of a keystore alias, or of a key held by a {@link SignAgent}. */
+final class SigningKey {
+    static final String OID_ED25519 = "1.3.101.112";
+    private static final String OID_ED448 = "1.3.101.113";
+
+    /** Null when the key is held by an agent */
+    final @Nullable PrivateKey key;
+    final X509Certificate[] chain;
+    /** The providerClass the key was loaded with. Keys on a token can only be used through their own provider. */
+    private final @Nullable Provider provider;
+    private final @Nullable String type;
+    private final @Nullable SignAgent.Client agent;
+    /** Nanoseconds it took to load the key, or get it from the agent, the first time. Kept along with it by the {@link KeyCache}. */
+    long loadTime;
+
+    private SigningKey(PrivateKey key, X509Certificate[] chain, @Nullable Provider provider) {
+        this.key = key;
+        this.chain = chain;
+        this.provider = provider;
+        this.type = null;
+        this.agent = null;
+    }
+
+    SigningKey(X509Certificate[] chain, String type, SignAgent.Client agent) {
+        this.key = null;
+        this.chain = chain;
+        this.provider = null;
+        this.type = type;
+        this.agent = agent;
+    }
+
+    /**
+     * Signs the data, or has the agent sign it.
+     *
+     * @param algorithm Signature algorithm, like SHA256withRSA
+     * @param digestOid OID of the algorithm's digest
+     */
+    byte[] sign(String algorithm, String digestOid, byte[] data) throws IOException, GeneralSecurityException {
+        if (this.agent != null)
+            return this.agent.sign(algorithm, digestOid, data);
+        return signLocal(algorithm, data);
+    }
+
+    /** Signs with the private key we hold, which is how the agent answers requests. */
+    byte[] signLocal(String algorithm, byte[] data) throws GeneralSecurityException {
+        if (this.key == null)
+            throw new IllegalStateException("Key is held by a signing agent");
+
+        // Providers that only supply the keystore, for keys any provider can use, might not have the algorithm
+        Signature sig = this.provider != null && this.provider.getService("Signature", algorithm) != null
+            ? Signature.getInstance(algorithm, this.provider)
+            : Signature.getInstance(algorithm);
+        sig.initSign(this.key);
+        sig.update(data);
+        return sig.sign();
+    }
+
+    /** RSA, EC, DSA or Ed25519. EdDSA keys only say which curve they use in their encoding. */
+    String getType() {
+        if (this.type != null)
+            return this.type;
+
+        String algorithm = this.key.getAlgorithm();
+        switch (algorithm) {
+            case "RSA":
+            case "EC":
+            case "DSA":
+            case "Ed25519":
+                return algorithm;
+            case "EdDSA":
+                // PrivateKeyInfo ::= SEQUENCE { version, privateKeyAlgorithm SEQUENCE { OID }, privateKey }
+                byte[] encoded = this.key.getEncoded();
+                try {
+                    String oid = encoded == null ? null : Der.read(encoded, 0).expect(Pkcs7.SEQUENCE).child(1).expect(Pkcs7.SEQUENCE).child(0).oid();
+                    if (OID_ED25519.equals(oid))
+                        return "Ed25519";
+                    if (OID_ED448.equals(oid))
+                        throw new IllegalStateException("Unsupported key algorithm: Ed448");
+                } catch (IOException | IndexOutOfBoundsException e) {
+                    // Fall through to the error below
+                }
+                throw new IllegalStateException("Unsupported key algorithm: EdDSA with an unknown curve");
+            default:
+                throw new IllegalStateException("Unsupported key algorithm: " + algorithm);
+        }
+    }
+
+    /** SHA-256 fingerprint of the signer's certificate, the same one keytool prints. */
+    String getFingerprint() throws GeneralSecurityException {
+        return getFingerprint(this.chain[0]);
+    }
+
+    static String getFingerprint(Certificate cert) throws GeneralSecurityException {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(cert.getEncoded());
+        return String.format("%064X", new BigInteger(1, hash));
+    }
+
+    static byte[] readKeyStore(@Nullable File file, @Nullable String data) throws IOException {
+        if (file != null) {
+            if (data != null)
+                throw new IllegalStateException("Both KeyStoreFile and KeyStoreData can not be set at the same time");
+            return Files.readAllBytes(file.toPath());
+        } else if (data != null) {
+            return Base64.getDecoder().decode(data.getBytes(StandardCharsets.UTF_8));
+        } else {
+            throw new IllegalArgumentException("SignJar needs either a Base64 encoded KeyStore file, or a path to a KeyStore file");
+        }
+    }
+
+    static SigningKey load(byte[] keyStore, String storeType, String providerClass, String providerArg, String storePass, String alias, String keyPass) throws IOException, GeneralSecurityException {
+        Provider provider = providerClass == null ? null : loadProvider(providerClass, providerArg);
+        KeyStore store = loadStore(keyStore, storeType, provider, storePass);
+
+        Key key = store.getKey(alias, (keyPass == null ? storePass : keyPass).toCharArray());
+        if (!(key instanceof PrivateKey))
+            throw new IllegalStateException("KeyStore does not contain a private key for alias: " + alias);
+
+        Certificate[] certs = store.getCertificateChain(alias);
+        if (certs == null || certs.length == 0)
+            throw new IllegalStateException("KeyStore does not contain a certificate chain for alias: " + alias);
+
+        X509Certificate[] chain = new X509Certificate[certs.length];
+        for (int x = 0; x < certs.length; x++) {
+            if (!(certs[x] instanceof X509Certificate))
+                throw new IllegalStateException("Certificate chain for alias " + alias + " contains a non X.509 certificate");
+            chain[x] = (X509Certificate)certs[x];
+        }
+
+        return new SigningKey((PrivateKey)key, chain, provider);
+    }
+
+    /** Fingerprint of the alias' certificate, which only needs the keystore password, the key stays locked. */
+    static String loadFingerprint(byte[] keyStore, String storeType, String providerClass, String providerArg, String storePass, String alias) throws IOException, GeneralSecurityException {
+        Provider provider = providerClass == null ? null : loadProvider(providerClass, providerArg);
+        Certificate cert = loadStore(keyStore, storeType, provider, storePass).getCertificate(alias);
+        if (cert == null)
+            throw new IllegalStateException("KeyStore does not contain a certificate for alias: " + alias);
+        return getFingerprint(cert);
+    }
+
+    private static KeyStore loadStore(byte[] keyStore, String storeType, @Nullable Provider provider, String storePass) throws IOException, GeneralSecurityException {
+        String type = storeType == null ? KeyStore.getDefaultType() : storeType;
+        KeyStore store = provider == null ? KeyStore.getInstance(type) : KeyStore.getInstance(type, provider);
+        store.load(new ByteArrayInputStream(keyStore), storePass.toCharArray());
+        return store;
+    }
+
+    private static Provider loadProvider(String providerClass, String providerArg) throws GeneralSecurityException {
+        try {
+            Class<?> cls = Class.forName(providerClass);
+            if (providerArg == null)
+                return (Provider)cls.getConstructor().newInstance();
+
+            // Java 8 style providers take their configuration in the constructor, newer ones use Provider.configure
+            try {
+                Constructor<?> ctr = cls.getConstructor(String.class);
+                return (Provider)ctr.newInstance(providerArg);
+            } catch (NoSuchMethodException e) {
+                Provider provider = (Provider)cls.getConstructor().newInstance();
+                return (Provider)Provider.class.getMethod("configure", String.class).invoke(provider, providerArg);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new GeneralSecurityException("Could not create security provider " + providerClass, e);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gradle.api.logging.Logger;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Minimal RFC 3161 client used to timestamp signatures. Tokens are only used once the TSA's signature over them checks out.
+ * Responses are always read completely so {@link HttpURLConnection} can keep the connection alive for the next jar,
+ * failed requests are retried with an exponential backoff, and tokens can be cached on disk so signing the
+ * same content again doesn't have to ask the TSA.
+ */
+final class TsaClient {
+    private static final String DIGEST = "SHA-256";
+    private static final String DIGEST_OID = "2.16.840.1.101.3.4.2.1";
+    private static final String OID_TST_INFO = "1.2.840.113549.1.9.16.1.4";
+    private static final int MAX_RESPONSE = 1 << 20;
+    private static final long BACKOFF = 1000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final URL url;
+    private final int timeout;
+    private final int retries;
+    private final @Nullable File cache;
+    private final Logger logger;
+
+    /**
+     * @param timeout Connect and read timeout in milliseconds
+     * @param retries How many times a failed request is retried
+     * @param cache   Directory to store tokens in, null to always ask the TSA
+     */
+    TsaClient(String url, int timeout, int retries, @Nullable File cache, Logger logger) throws IOException {
+        this.url = new URL(url);
+        this.timeout = timeout;
+        this.retries = Math.max(retries, 0);
+        this.cache = cache;
+        this.logger = logger;
+    }
+
+    /** Returns the timestamp token, a PKCS#7 ContentInfo, for the given signature. */
+    byte[] timestamp(byte[] signature) throws IOException, GeneralSecurityException {
+        byte[] imprint = MessageDigest.getInstance(DIGEST).digest(signature);
+
+        File cached = getCacheFile(imprint);
+        if (cached != null && cached.exists()) {
+            try {
+                byte[] token = Files.readAllBytes(cached.toPath());
+                checkToken(token, imprint, null);
+                JarVerifier.checkTimestamp(token, signature);
+                this.logger.info("Using cached timestamp {}", cached);
+                return token;
+            } catch (IOException | GeneralSecurityException | IndexOutOfBoundsException e) {
+                this.logger.info("Ignoring invalid cached timestamp {}: {}", cached, e.getMessage());
+            }
+        }
+
+        BigInteger nonce = new BigInteger(63, RANDOM);
+        byte[] request = Pkcs7.tag(Pkcs7.SEQUENCE,
+            Pkcs7.integer(BigInteger.ONE),
+            Pkcs7.tag(Pkcs7.SEQUENCE,
+                Pkcs7.algorithm(DIGEST_OID, false),
+                Pkcs7.tag(Pkcs7.OCTET_STRING, imprint)
+            ),
+            Pkcs7.integer(nonce),
+            new byte[] { 0x01, 0x01, (byte)0xFF } // certReq, so the TSA's certificate is in the token
+        );
+
+        byte[] response = send(request);
+        byte[] token;
+        try {
+            token = parseResponse(response, imprint, nonce);
+            // The TSA has to have signed it, with a certificate that allows timestamping and was valid at the time it gives
+            JarVerifier.checkTimestamp(token, signature);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Malformed timestamp response from " + this.url, e);
+        } catch (GeneralSecurityException e) {
+            throw new GeneralSecurityException("Invalid timestamp from " + this.url + ": " + e.getMessage(), e);
+        }
+
+        if (cached != null) {
+            File tmp = new File(cached.getParentFile(), cached.getName() + ".tmp");
+            Files.createDirectories(cached.getParentFile().toPath());
+            Files.write(tmp.toPath(), token);
+            Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return token;
+    }
+
+    private byte[] send(byte[] request) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return post(request);
+            } catch (RetryableException e) {
+                if (attempt >= this.retries)
+                    throw new IOException("Failed to get timestamp from " + this.url + " after " + (attempt + 1) + " attempts", e);
+
+                long delay = BACKOFF << attempt;
+                this.logger.warn("Timestamp request to {} failed ({}), retrying in {}ms", this.url, e.getMessage(), delay);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry timestamp request");
+                }
+            }
+        }
+    }
+
+    private byte[] post(byte[] request) throws IOException {
+        HttpURLConnection con;
+        try {
+            con = (HttpURLConnection)this.url.openConnection();
+            con.setConnectTimeout(this.timeout);
+            con.setReadTimeout(this.timeout);
+            con.setUseCaches(false);
+            con.setDoOutput(true);
+            con.setRequestMethod("POST");
+            con.setRequestProperty("Content-Type", "application/timestamp-query");
+            con.setFixedLengthStreamingMode(request.length);
+            try (OutputStream out = con.getOutputStream()) {
+                out.write(request);
+            }
+        } catch (IOException e) {
+            throw new RetryableException(e.toString(), e);
+        }
+
+        int code;
+        try {
+            code = con.getResponseCode();
+        } catch (IOException e) {
+            throw new RetryableException(e.toString(), e);
+        }
+
+        if (code != HttpURLConnection.HTTP_OK) {
+            // Drain the error body, otherwise the connection can't be reused
+            try (InputStream err = con.getErrorStream()) {
+                if (err != null)
+                    readAll(err);
+            } catch (IOException e) {
+                // We're already failing
+            }
+
+            String msg = "HTTP " + code + ' ' + con.getResponseMessage();
+            if (code >= 500 || code == 408 || code == 429)
+                throw new RetryableException(msg, null);
+            throw new IOException("Timestamp request to " + this.url + " failed: " + msg);
+        }
+
+        try (InputStream in = con.getInputStream()) {
+            return readAll(in);
+        } catch (IOException e) {
+            throw new RetryableException(e.toString(), e);
+        }
+    }
+
+    private static byte[] parseResponse(byte[] data, byte[] imprint, BigInteger nonce) throws IOException {
+        // TimeStampResp ::= SEQUENCE { status PKIStatusInfo, timeStampToken ContentInfo OPTIONAL }
+        List<Der> resp = Der.read(data, 0).expect(Pkcs7.SEQUENCE).children();
+        List<Der> status = resp.get(0).expect(Pkcs7.SEQUENCE).children();
+        int code = status.get(0).expect(Pkcs7.INTEGER).integer().intValue();
+        // 0 is granted, 1 is granted with modifications
+        if ((code != 0 && code != 1) || resp.size() < 2) {
+            String text = status.size() > 1 && status.get(1).tag == Pkcs7.SEQUENCE ? ": " + new String(status.get(1).child(0).value(), StandardCharsets.UTF_8) : "";
+            throw new IOException("TSA rejected the timestamp request with status " + code + text);
+        }
+
+        byte[] token = resp.get(1).encoded();
+        checkToken(token, imprint, nonce);
+        return token;
+    }
+
+    /** Makes sure the token is for our signature, so we never embed a timestamp for something else. */
+    private static void checkToken(byte[] token, byte[] imprint, @Nullable BigInteger nonce) throws IOException {
+        // ContentInfo -> [0] SignedData -> encapContentInfo -> [0] eContent -> TSTInfo
+        List<Der> info = Der.read(token, 0).expect(Pkcs7.SEQUENCE).children();
+        if (!Arrays.equals(info.get(0).expect(Pkcs7.OID).encoded(), Pkcs7.oid(Pkcs7.OID_SIGNED_DATA)))
+            throw new IOException("Timestamp token is not a SignedData");
+
+        List<Der> encap = info.get(1).expect(0xA0).child(0).expect(Pkcs7.SEQUENCE).child(2).expect(Pkcs7.SEQUENCE).children();
+        if (!Arrays.equals(encap.get(0).expect(Pkcs7.OID).encoded(), Pkcs7.oid(OID_TST_INFO)))
+            throw new IOException("Timestamp token does not contain a TSTInfo");
+
+        Der octets = encap.get(1).expect(0xA0).child(0).expect(Pkcs7.OCTET_STRING);
+        // TSTInfo ::= SEQUENCE { version, policy, messageImprint, serialNumber, genTime, accuracy OPTIONAL, ordering DEFAULT FALSE, nonce OPTIONAL, ... }
+        List<Der> tst = Der.read(octets.value(), 0).expect(Pkcs7.SEQUENCE).children();
+        List<Der> messageImprint = tst.get(2).expect(Pkcs7.SEQUENCE).children();
+        if (!Arrays.equals(messageImprint.get(0).expect(Pkcs7.SEQUENCE).child(0).encoded(), Pkcs7.oid(DIGEST_OID)) ||
+            !Arrays.equals(messageImprint.get(1).expect(Pkcs7.OCTET_STRING).value(), imprint))
+            throw new IOException("Timestamp token was issued for a different signature");
+
+        if (nonce != null) {
+            BigInteger found = null;
+            for (int x = 5; x < tst.size() && found == null; x++) {
+                if (tst.get(x).tag == Pkcs7.INTEGER)
+                    found = tst.get(x).integer();
+            }
+            if (!nonce.equals(found))
+                throw new IOException("Timestamp response does not match our request's nonce");
+        }
+    }
+
+    private @Nullable File getCacheFile(byte[] imprint) throws GeneralSecurityException {
+        if (this.cache == null)
+            return null;
+
+        // Different TSAs give different tokens for the same signature
+        MessageDigest md = MessageDigest.getInstance(DIGEST);
+        md.update(this.url.toString().getBytes(StandardCharsets.UTF_8));
+        md.update((byte)0);
+        md.update(imprint);
+        return new File(this.cache, String.format("%064x", new BigInteger(1, md.digest())) + ".tsr");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[0x2000];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            if (out.size() + len > MAX_RESPONSE)
+                throw new IOException("Timestamp response is larger than " + MAX_RESPONSE + " bytes");
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /** Network problems and server errors, which might go away if we try again. */
+    @SuppressWarnings("serial")
+    private static final class RetryableException extends IOException {
+        private RetryableException(String message, @Nullable Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
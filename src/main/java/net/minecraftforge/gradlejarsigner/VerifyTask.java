@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Verifies the signatures of a jar, and fails if any signed entry was modified, or a signer's certificate wasn't
+ * valid for code signing when it was timestamped, or now without a timestamp. Certificates aren't checked against
+ * trusted roots. The report is the task's output, so a jar is only verified again when it changes.
+ */
+public abstract class VerifyTask extends DefaultTask {
+    private static final int MAX_ERRORS = 10;
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getArchiveFile();
+
+    /** Number of threads used to digest entries, defaults to the number of processors */
+    @Internal
+    public abstract Property<Integer> getThreads();
+
+    @OutputFile
+    public abstract RegularFileProperty getReport();
+
+    @TaskAction
+    public void verify() throws IOException {
+        File jar = getArchiveFile().get().getAsFile();
+        JarVerifier.Result result = new JarVerifier(getThreads().getOrElse(Runtime.getRuntime().availableProcessors())).verify(jar);
+
+        List<String> lines = new ArrayList<>();
+        lines.add("Signed entries: " + result.signed);
+        for (String signer : result.signers)
+            lines.add("Signer: " + signer);
+        for (String name : result.unsigned)
+            lines.add("Unsigned: " + name);
+        for (String error : result.errors)
+            lines.add("Error: " + error);
+
+        File report = getReport().get().getAsFile();
+        Files.createDirectories(report.getParentFile().toPath());
+        Files.write(report.toPath(), lines, StandardCharsets.UTF_8);
+
+        if (!result.unsigned.isEmpty())
+            getLogger().warn("{} has {} unsigned entries, see {}", jar, result.unsigned.size(), report);
+
+        if (!result.errors.isEmpty()) {
+            StringBuilder msg = new StringBuilder("Failed to verify ").append(jar).append(':');
+            for (String error : result.errors.subList(0, Math.min(MAX_ERRORS, result.errors.size())))
+                msg.append("\n  ").append(error);
+            if (result.errors.size() > MAX_ERRORS)
+                msg.append("\n  ...and ").append(result.errors.size() - MAX_ERRORS).append(" more, see ").append(report);
+            throw new IllegalStateException(msg.toString());
+        }
+    }
+}
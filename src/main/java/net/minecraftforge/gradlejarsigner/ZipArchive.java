@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Read only view of a zip file that works off the central directory and gives access to the raw
+ * compressed data of every entry, so that entries can be copied without being recompressed.
+ * The file is memory mapped when possible, and reads are positional otherwise, so a single instance
+ * can be shared between threads. Archives nested in other archives can be read straight from memory.
+ */
+final class ZipArchive implements Closeable {
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END_HEADER = 0x06054b50;
+    static final int ZIP64_END_HEADER = 0x06064b50;
+    static final int ZIP64_LOCATOR = 0x07064b50;
+    static final int ZIP64_EXTRA = 0x0001;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    // Windows can't replace a file that is mapped, and mappings are only released by the GC.
+    // That would break moving the next build's jar over the one we read, so only map everywhere else.
+    private static final boolean MAP = !System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH).startsWith("windows");
+
+    // Null when the archive is in memory
+    private final @Nullable FileChannel channel;
+    // The mapped file, or the whole archive when it's in memory
+    private final @Nullable ByteBuffer map;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byName;
+
+    private ZipArchive(@Nullable FileChannel channel, @Nullable ByteBuffer map, List<Entry> entries) {
+        this.channel = channel;
+        this.map = map;
+        this.entries = Collections.unmodifiableList(entries);
+        this.byName = new HashMap<>(entries.size() * 2);
+        for (Entry entry : entries)
+            this.byName.putIfAbsent(entry.name, entry);
+    }
+
+    static ZipArchive open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            // Buffers are indexed by int, bigger archives use positional reads
+            MappedByteBuffer map = MAP && size > 0 && size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+            return new ZipArchive(channel, map, readCentralDirectory(channel, map, file.toString()));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** @param name Name of the archive for error messages */
+    static ZipArchive open(byte[] data, String name) throws IOException {
+        ByteBuffer map = ByteBuffer.wrap(data);
+        return new ZipArchive(null, map, readCentralDirectory(null, map, name));
+    }
+
+    /** Entries in central directory order. */
+    List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    Entry getEntry(String name) {
+        return this.byName.get(name);
+    }
+
+    /** Opens a stream of the uncompressed data of an entry. */
+    InputStream getInputStream(Entry entry) throws IOException {
+        ByteBuffer data = getData(entry);
+        InputStream raw = data != null ? new BufferInputStream(data) : new ChannelInputStream(this.channel, getDataOffset(entry), entry.compressedSize);
+        switch (entry.method) {
+            case ZipEntry.STORED: return raw;
+            case ZipEntry.DEFLATED: return new EntryInflaterStream(raw);
+            default: throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+    }
+
+    byte[] readAll(Entry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int)Math.max(Math.min(entry.size, Integer.MAX_VALUE - 8), 32));
+        byte[] buf = new byte[0x2000];
+        try (InputStream in = getInputStream(entry)) {
+            int len;
+            while ((len = in.read(buf)) != -1)
+                out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Feeds the uncompressed data of an entry to the digest. Stored entries are digested straight from the mapped file,
+     * and the reader's inflater and buffers are reused, so nothing is allocated per entry.
+     */
+    void digest(Entry entry, MessageDigest md, Reader reader) throws IOException {
+        ByteBuffer data = getData(entry);
+        long position = getDataOffset(entry);
+        long remaining = entry.compressedSize;
+
+        if (entry.method == ZipEntry.STORED) {
+            if (data != null) {
+                md.update(data);
+                return;
+            }
+            while (remaining > 0) {
+                int len = read(position, remaining, reader.output);
+                md.update(reader.output, 0, len);
+                position += len;
+                remaining -= len;
+            }
+            return;
+        }
+
+        if (entry.method != ZipEntry.DEFLATED)
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+
+        Inflater inf = reader.inflater;
+        inf.reset();
+        boolean eof = false;
+        try {
+            while (!inf.finished()) {
+                if (inf.needsInput()) {
+                    int len;
+                    if (remaining > 0) {
+                        if (data != null) {
+                            len = Math.min(data.remaining(), reader.input.length);
+                            data.get(reader.input, 0, len);
+                        } else {
+                            len = read(position, remaining, reader.input);
+                        }
+                        position += len;
+                        remaining -= len;
+                    } else if (!eof) {
+                        // Same as ZipFile, raw deflate data needs a trailing dummy byte to finish
+                        reader.input[0] = 0;
+                        len = 1;
+                        eof = true;
+                    } else {
+                        throw new EOFException("Unexpected end of ZLIB input stream for " + entry.name);
+                    }
+                    inf.setInput(reader.input, 0, len);
+                }
+
+                int len = inf.inflate(reader.output);
+                if (len > 0)
+                    md.update(reader.output, 0, len);
+                else if (inf.needsDictionary())
+                    throw new ZipException("Invalid deflate data for " + entry.name);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflate data for " + entry.name + ": " + e.getMessage());
+        }
+    }
+
+    /** Copies the still compressed data of an entry to the target. */
+    void transferData(Entry entry, WritableByteChannel target) throws IOException {
+        if (this.channel == null) {
+            ByteBuffer data = getData(entry);
+            while (data.hasRemaining())
+                target.write(data);
+            return;
+        }
+
+        long position = getDataOffset(entry);
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            long count = this.channel.transferTo(position, remaining, target);
+            if (count <= 0)
+                throw new EOFException("Unexpected end of zip file while copying " + entry.name);
+            position += count;
+            remaining -= count;
+        }
+    }
+
+    /** Slice of the mapped file with the compressed data of the entry, null if the file isn't mapped. */
+    private @Nullable ByteBuffer getData(Entry entry) throws IOException {
+        if (this.map == null)
+            return null;
+
+        long offset = getDataOffset(entry);
+        if (offset + entry.compressedSize > this.map.limit())
+            throw new EOFException("Unexpected end of zip file reading " + entry.name);
+
+        ByteBuffer ret = this.map.duplicate();
+        ret.limit((int)(offset + entry.compressedSize));
+        ret.position((int)offset);
+        return ret.slice();
+    }
+
+    private int read(long position, long remaining, byte[] buf) throws IOException {
+        int len = this.channel.read(ByteBuffer.wrap(buf, 0, (int)Math.min(buf.length, remaining)), position);
+        if (len < 0)
+            throw new EOFException("Unexpected end of zip file");
+        return len;
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset == -1) {
+            ByteBuffer buf = read(this.channel, this.map, entry.localOffset, 30);
+            if (buf.getInt(0) != LOCAL_HEADER)
+                throw new ZipException("Invalid local header for " + entry.name);
+            entry.dataOffset = entry.localOffset + 30 + (buf.getShort(26) & 0xFFFF) + (buf.getShort(28) & 0xFFFF);
+        }
+        return entry.dataOffset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null)
+            this.channel.close();
+    }
+
+    private static List<Entry> readCentralDirectory(@Nullable FileChannel channel, @Nullable ByteBuffer map, String file) throws IOException {
+        long size = map != null ? map.limit() : channel.size();
+        int tail = (int)Math.min(size, 0xFFFF + 22);
+        ByteBuffer buf = read(channel, map, size - tail, tail);
+
+        int end = -1;
+        for (int x = tail - 22; x >= 0; x--) {
+            if (buf.getInt(x) == END_HEADER) {
+                end = x;
+                break;
+            }
+        }
+        if (end == -1)
+            throw new ZipException("Could not find end of central directory in " + file);
+
+        long count = buf.getShort(end + 10) & 0xFFFF;
+        long cdSize = buf.getInt(end + 12) & ZIP64_MAGIC;
+        long cdOffset = buf.getInt(end + 16) & ZIP64_MAGIC;
+
+        if (count == 0xFFFF || cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC) {
+            long locator = size - tail + end - 20;
+            ByteBuffer loc = locator < 0 ? null : read(channel, map, locator, 20);
+            if (loc == null || loc.getInt(0) != ZIP64_LOCATOR)
+                throw new ZipException("Could not find zip64 end of central directory locator in " + file);
+            ByteBuffer end64 = read(channel, map, loc.getLong(8), 56);
+            if (end64.getInt(0) != ZIP64_END_HEADER)
+                throw new ZipException("Invalid zip64 end of central directory in " + file);
+            count = end64.getLong(32);
+            cdSize = end64.getLong(40);
+            cdOffset = end64.getLong(48);
+        }
+
+        if (cdSize > Integer.MAX_VALUE)
+            throw new ZipException("Central directory too large in " + file);
+
+        ByteBuffer cd = read(channel, map, cdOffset, (int)cdSize);
+        List<Entry> entries = new ArrayList<>((int)Math.min(count, 0x100000));
+        int pos = 0;
+        for (long x = 0; x < count; x++) {
+            if (cd.getInt(pos) != CENTRAL_HEADER)
+                throw new ZipException("Invalid central directory entry " + x + " in " + file);
+
+            Entry entry = new Entry();
+            entry.versionMadeBy = cd.getShort(pos + 4) & 0xFFFF;
+            entry.flags = cd.getShort(pos + 8) & 0xFFFF;
+            entry.method = cd.getShort(pos + 10) & 0xFFFF;
+            entry.dosTime = cd.getInt(pos + 12) & ZIP64_MAGIC;
+            entry.crc = cd.getInt(pos + 16) & ZIP64_MAGIC;
+            entry.compressedSize = cd.getInt(pos + 20) & ZIP64_MAGIC;
+            entry.size = cd.getInt(pos + 24) & ZIP64_MAGIC;
+            int nameLen = cd.getShort(pos + 28) & 0xFFFF;
+            int extraLen = cd.getShort(pos + 30) & 0xFFFF;
+            int commentLen = cd.getShort(pos + 32) & 0xFFFF;
+            entry.internalAttributes = cd.getShort(pos + 36) & 0xFFFF;
+            entry.externalAttributes = cd.getInt(pos + 38);
+            entry.localOffset = cd.getInt(pos + 42) & ZIP64_MAGIC;
+
+            entry.name = string(cd, pos + 46, nameLen);
+            entry.extra = new byte[extraLen];
+            cd.position(pos + 46 + nameLen);
+            cd.get(entry.extra);
+            entry.comment = new byte[commentLen];
+            cd.get(entry.comment);
+            readZip64(entry);
+
+            pos += 46 + nameLen + extraLen + commentLen;
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static void readZip64(Entry entry) throws ZipException {
+        if (entry.size != ZIP64_MAGIC && entry.compressedSize != ZIP64_MAGIC && entry.localOffset != ZIP64_MAGIC)
+            return;
+
+        ByteBuffer extra = ByteBuffer.wrap(entry.extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (extra.remaining() >= 4) {
+            int id = extra.getShort() & 0xFFFF;
+            int len = extra.getShort() & 0xFFFF;
+            int next = extra.position() + len;
+            if (id == ZIP64_EXTRA) {
+                if (entry.size == ZIP64_MAGIC)
+                    entry.size = extra.getLong();
+                if (entry.compressedSize == ZIP64_MAGIC)
+                    entry.compressedSize = extra.getLong();
+                if (entry.localOffset == ZIP64_MAGIC)
+                    entry.localOffset = extra.getLong();
+                return;
+            }
+            extra.position(Math.min(next, extra.limit()));
+        }
+        throw new ZipException("Missing zip64 extra data for " + entry.name);
+    }
+
+    private static String string(ByteBuffer buf, int offset, int length) {
+        if (buf.hasArray())
+            return new String(buf.array(), buf.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        byte[] data = new byte[length];
+        buf.position(offset);
+        buf.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer read(@Nullable FileChannel channel, @Nullable ByteBuffer map, long position, int length) throws IOException {
+        if (map != null) {
+            if (position < 0 || position + length > map.limit())
+                throw new EOFException("Unexpected end of zip file");
+            ByteBuffer ret = map.duplicate();
+            ret.limit((int)(position + length));
+            ret.position((int)position);
+            return ret.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0)
+                throw new EOFException("Unexpected end of zip file");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    static long dosToJavaTime(long dos) {
+        try {
+            return LocalDateTime.of(
+                (int)((dos >> 25) & 0x7F) + 1980,
+                (int)((dos >> 21) & 0x0F),
+                (int)((dos >> 16) & 0x1F),
+                (int)((dos >> 11) & 0x1F),
+                (int)((dos >> 5) & 0x3F),
+                (int)((dos << 1) & 0x3E)
+            ).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return -1;
+        }
+    }
+
+    static long javaToDosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (date.getYear() < 1980)
+            return (1 << 21) | (1 << 16);
+        return (date.getYear() - 1980L) << 25 |
+               (long)date.getMonthValue() << 21 |
+               (long)date.getDayOfMonth() << 16 |
+               (long)date.getHour() << 11 |
+               (long)date.getMinute() << 5 |
+               (long)date.getSecond() >> 1;
+    }
+
+    static final class Entry {
+        String name;
+        int versionMadeBy;
+        int flags;
+        int method;
+        long dosTime;
+        long crc;
+        long compressedSize;
+        long size;
+        int internalAttributes;
+        int externalAttributes;
+        long localOffset;
+        byte[] extra;
+        byte[] comment;
+        long dataOffset = -1;
+
+        boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+
+        long getTime() {
+            return dosToJavaTime(this.dosTime);
+        }
+    }
+
+    /** Per thread state for {@link #digest}, so reading entries doesn't allocate anything. */
+    static final class Reader implements Closeable {
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] input = new byte[0x2000];
+        private final byte[] output = new byte[0x2000];
+
+        @Override
+        public void close() {
+            this.inflater.end();
+        }
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        private BufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return this.buf.hasRemaining() ? this.buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!this.buf.hasRemaining())
+                return -1;
+            len = Math.min(len, this.buf.remaining());
+            this.buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return this.buf.remaining();
+        }
+    }
+
+    private static final class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        private ChannelInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buf = new byte[1];
+            return read(buf, 0, 1) == -1 ? -1 : buf[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0)
+                return -1;
+            int count = this.channel.read(ByteBuffer.wrap(b, off, (int)Math.min(len, this.remaining)), this.position);
+            if (count < 0)
+                throw new EOFException("Unexpected end of zip file");
+            this.position += count;
+            this.remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int)Math.min(this.remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    /** Same as ZipFile's inflater stream, raw deflate data needs a trailing dummy byte to finish. */
+    private static final class EntryInflaterStream extends InflaterInputStream {
+        private boolean eof;
+
+        private EntryInflaterStream(InputStream in) {
+            super(in, new Inflater(true), 0x2000);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (this.eof)
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            this.len = this.in.read(this.buf, 0, this.buf.length);
+            if (this.len == -1) {
+                this.buf[0] = 0;
+                this.len = 1;
+                this.eof = true;
+            }
+            this.inf.setInput(this.buf, 0, this.len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            this.inf.end();
+        }
+    }
+}
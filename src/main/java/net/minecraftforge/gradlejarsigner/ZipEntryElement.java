@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.file.RelativePath;
+
+/**
+ * Exposes a zip entry to {@link org.gradle.api.specs.Spec}s so we can evaluate the task's filters without going
+ * through {@code Project.zipTree}. Entries are only extracted if a spec asks for their file.
+ * <p>
+ * Gradle 8.3 added {@code getPermissions} to {@link FileTreeElement} and Gradle 9 removed {@code getMode}, so no class
+ * can implement it for both the API we compile against and newer ones. Instead the element is a proxy, which answers
+ * whichever of the two is asked for.
+ */
+final class ZipEntryElement implements InvocationHandler {
+    private static final int UNIX = 3;
+
+    private final ZipArchive zip;
+    private final ZipArchive.Entry entry;
+    private final File extractDir;
+    private RelativePath path;
+    private File file;
+
+    private ZipEntryElement(ZipArchive zip, ZipArchive.Entry entry, File extractDir) {
+        this.zip = zip;
+        this.entry = entry;
+        this.extractDir = extractDir;
+    }
+
+    /**
+     * @param extractDir Where entries are extracted when a spec needs their file. Shared by every entry of the archive,
+     *                   and deleted by whoever created it once the archive is filtered.
+     */
+    static FileTreeElement create(ZipArchive zip, ZipArchive.Entry entry, File extractDir) {
+        return (FileTreeElement)Proxy.newProxyInstance(FileTreeElement.class.getClassLoader(), new Class<?>[] { FileTreeElement.class },
+            new ZipEntryElement(zip, entry, extractDir));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getFile":         return getFile();
+            case "isDirectory":     return this.entry.isDirectory();
+            case "getLastModified": return this.entry.getTime();
+            case "getSize":         return this.entry.size;
+            case "open":            return open();
+            case "getName":         return getRelativePath().getLastName();
+            case "getPath":         return getPath();
+            case "getRelativePath": return getRelativePath();
+            case "getMode":         return getMode();
+            case "getPermissions":  return permissions(method.getReturnType(), getMode());
+            case "toString":        return getPath();
+            case "hashCode":        return System.identityHashCode(proxy);
+            case "equals":          return proxy == args[0];
+            case "copyTo":
+                if (args[0] instanceof File)
+                    return copyTo((File)args[0]);
+                copyTo((OutputStream)args[0]);
+                return null;
+            default:
+                throw new UnsupportedOperationException(method.toString());
+        }
+    }
+
+    private InputStream open() {
+        try {
+            return this.zip.getInputStream(this.entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void copyTo(OutputStream output) {
+        byte[] buf = new byte[0x2000];
+        try (InputStream in = open()) {
+            int len;
+            while ((len = in.read(buf)) != -1)
+                output.write(buf, 0, len);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean copyTo(File target) {
+        try {
+            Files.createDirectories(target.getAbsoluteFile().getParentFile().toPath());
+            if (this.entry.isDirectory()) {
+                Files.createDirectories(target.toPath());
+            } else {
+                try (InputStream in = open()) {
+                    Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            target.setLastModified(this.entry.getTime());
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Same as Gradle's zipTree, which extracts an entry the first time its file is needed
+    private File getFile() {
+        if (this.file == null) {
+            File target = getRelativePath().getFile(this.extractDir);
+            copyTo(target);
+            this.file = target;
+        }
+        return this.file;
+    }
+
+    private String getPath() {
+        return getRelativePath().getPathString();
+    }
+
+    private RelativePath getRelativePath() {
+        if (this.path == null)
+            this.path = RelativePath.parse(!this.entry.isDirectory(), this.entry.name);
+        return this.path;
+    }
+
+    /** The Unix mode stored in the entry, or the same default as Gradle when it was made somewhere else. */
+    private int getMode() {
+        int mode = (this.entry.externalAttributes >>> 16) & 0777;
+        if ((this.entry.versionMadeBy >>> 8) == UNIX && mode != 0)
+            return mode;
+        return this.entry.isDirectory() ? 0755 : 0644;
+    }
+
+    /** Implements FilePermissions and UserClassFilePermissions, found through the return types so we don't need them to compile. */
+    private static Object permissions(Class<?> type, int mode) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUser":       return permissions(method.getReturnType(), mode >>> 6);
+                case "getGroup":      return permissions(method.getReturnType(), mode >>> 3);
+                case "getOther":      return permissions(method.getReturnType(), mode);
+                case "toUnixNumeric": return mode;
+                case "getRead":       return (mode & 4) != 0;
+                case "getWrite":      return (mode & 2) != 0;
+                case "getExecute":    return (mode & 1) != 0;
+                case "toString":      return Integer.toOctalString(mode);
+                case "hashCode":      return System.identityHashCode(proxy);
+                case "equals":        return proxy == args[0];
+                default: throw new UnsupportedOperationException(method.toString());
+            }
+        });
+    }
+}
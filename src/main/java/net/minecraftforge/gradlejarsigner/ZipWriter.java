@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.jetbrains.annotations.Nullable;
+
+import static net.minecraftforge.gradlejarsigner.ZipArchive.CENTRAL_HEADER;
+import static net.minecraftforge.gradlejarsigner.ZipArchive.END_HEADER;
+import static net.minecraftforge.gradlejarsigner.ZipArchive.LOCAL_HEADER;
+import static net.minecraftforge.gradlejarsigner.ZipArchive.ZIP64_END_HEADER;
+import static net.minecraftforge.gradlejarsigner.ZipArchive.ZIP64_EXTRA;
+import static net.minecraftforge.gradlejarsigner.ZipArchive.ZIP64_LOCATOR;
+import static net.minecraftforge.gradlejarsigner.ZipArchive.ZIP64_MAGIC;
+
+/**
+ * Writes a zip file, either from new data or by copying the compressed data of entries in
+ * another {@link ZipArchive} verbatim. Only the headers and central directory are regenerated.
+ * The central directory is only written by {@link #finish()}, closing the writer without finishing
+ * it deletes the file, so an exception part way through doesn't leave a truncated archive behind.
+ */
+final class ZipWriter implements Closeable {
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    // Same time Gradle uses for archives that don't preserve file timestamps
+    private static final long CONSTANT_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+    private static final int EXTRA_NTFS = 0x000A;
+    private static final int EXTRA_UNIX = 0x5855;
+    private static final int EXTRA_TIMESTAMP = 0x5455;
+
+    private final WritableByteChannel channel;
+    private final @Nullable File file;
+    private final boolean reproducible;
+    private final List<Record> records = new ArrayList<>();
+    private final ByteBuffer buf = ByteBuffer.allocate(0x40000).order(ByteOrder.LITTLE_ENDIAN);
+    private long written;
+    private boolean finished;
+
+    ZipWriter(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param reproducible Gives every entry the same constant time, and drops extra fields that hold timestamps
+     */
+    ZipWriter(File file, boolean reproducible) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null)
+            parent.mkdirs();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.file = file;
+        this.reproducible = reproducible;
+    }
+
+    /** Writes to a stream instead, which is closed along with the writer. Used for archives nested in other archives. */
+    ZipWriter(OutputStream out, boolean reproducible) {
+        this.channel = Channels.newChannel(out);
+        this.file = null;
+        this.reproducible = reproducible;
+    }
+
+    /** Writes a new deflated entry. */
+    void write(String name, long time, byte[] data) throws IOException {
+        byte[] compressed = deflate(data);
+
+        Record record = new Record();
+        record.name = name.getBytes(StandardCharsets.UTF_8);
+        record.flags = isAscii(name) ? 0 : FLAG_UTF8;
+        record.method = ZipEntry.DEFLATED;
+        record.dosTime = ZipArchive.javaToDosTime(this.reproducible ? CONSTANT_TIME : time);
+        record.crc = crc(data);
+        record.compressedSize = compressed.length;
+        record.size = data.length;
+        record.extra = new byte[0];
+        record.comment = new byte[0];
+
+        writeLocalHeader(record);
+        flush();
+        writeFully(ByteBuffer.wrap(compressed));
+    }
+
+    /** Writes an entry of another archive with new data, keeping its name, attributes and whether it's compressed. */
+    void replace(ZipArchive.Entry entry, byte[] data) throws IOException {
+        boolean stored = entry.method == ZipEntry.STORED;
+        byte[] compressed = stored ? data : deflate(data);
+
+        Record record = new Record();
+        record.name = entry.name.getBytes(StandardCharsets.UTF_8);
+        record.versionMadeBy = entry.versionMadeBy;
+        record.flags = (entry.flags & ~FLAG_DATA_DESCRIPTOR) | (isAscii(entry.name) ? 0 : FLAG_UTF8);
+        record.method = stored ? ZipEntry.STORED : ZipEntry.DEFLATED;
+        record.dosTime = this.reproducible ? ZipArchive.javaToDosTime(CONSTANT_TIME) : entry.dosTime;
+        record.crc = crc(data);
+        record.compressedSize = compressed.length;
+        record.size = data.length;
+        record.internalAttributes = entry.internalAttributes;
+        record.externalAttributes = entry.externalAttributes;
+        record.extra = stripExtra(entry.extra);
+        record.comment = entry.comment;
+
+        writeLocalHeader(record);
+        flush();
+        writeFully(ByteBuffer.wrap(compressed));
+    }
+
+    /** Copies an entry from another archive without decompressing it. */
+    void copy(ZipArchive from, ZipArchive.Entry entry) throws IOException {
+        Record record = new Record();
+        record.name = entry.name.getBytes(StandardCharsets.UTF_8);
+        record.versionMadeBy = entry.versionMadeBy;
+        record.flags = (entry.flags & ~FLAG_DATA_DESCRIPTOR) | (isAscii(entry.name) ? 0 : FLAG_UTF8);
+        record.method = entry.method;
+        record.dosTime = this.reproducible ? ZipArchive.javaToDosTime(CONSTANT_TIME) : entry.dosTime;
+        record.crc = entry.crc;
+        record.compressedSize = entry.compressedSize;
+        record.size = entry.size;
+        record.internalAttributes = entry.internalAttributes;
+        record.externalAttributes = entry.externalAttributes;
+        record.extra = stripExtra(entry.extra);
+        record.comment = entry.comment;
+
+        writeLocalHeader(record);
+        flush();
+        from.transferData(entry, this.channel);
+        this.written += entry.compressedSize;
+    }
+
+    private void writeLocalHeader(Record record) throws IOException {
+        record.localOffset = position();
+        boolean zip64 = record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC;
+
+        ByteBuffer buf = reserve(30 + record.name.length + record.extra.length + 20);
+        buf.putInt(LOCAL_HEADER);
+        buf.putShort((short)versionNeeded(record, zip64));
+        buf.putShort((short)record.flags);
+        buf.putShort((short)record.method);
+        buf.putInt((int)record.dosTime);
+        buf.putInt((int)record.crc);
+        buf.putInt((int)(zip64 ? ZIP64_MAGIC : record.compressedSize));
+        buf.putInt((int)(zip64 ? ZIP64_MAGIC : record.size));
+        buf.putShort((short)record.name.length);
+        buf.putShort((short)(record.extra.length + (zip64 ? 20 : 0)));
+        buf.put(record.name);
+        if (zip64) {
+            buf.putShort((short)ZIP64_EXTRA);
+            buf.putShort((short)16);
+            buf.putLong(record.size);
+            buf.putLong(record.compressedSize);
+        }
+        buf.put(record.extra);
+        this.records.add(record);
+    }
+
+    /** Writes the central directory, after which no more entries can be written. */
+    void finish() throws IOException {
+        if (this.finished)
+            throw new IllegalStateException("Already finished");
+        this.finished = true;
+
+        long start = position();
+        for (Record record : this.records) {
+            boolean zip64 = record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC || record.localOffset >= ZIP64_MAGIC;
+            int zip64Length = zip64 ? 28 : 0;
+
+            ByteBuffer buf = reserve(46 + record.name.length + record.extra.length + zip64Length + record.comment.length);
+            buf.putInt(CENTRAL_HEADER);
+            buf.putShort((short)(record.versionMadeBy == 0 ? versionNeeded(record, zip64) : record.versionMadeBy));
+            buf.putShort((short)versionNeeded(record, zip64));
+            buf.putShort((short)record.flags);
+            buf.putShort((short)record.method);
+            buf.putInt((int)record.dosTime);
+            buf.putInt((int)record.crc);
+            buf.putInt((int)(zip64 ? ZIP64_MAGIC : record.compressedSize));
+            buf.putInt((int)(zip64 ? ZIP64_MAGIC : record.size));
+            buf.putShort((short)record.name.length);
+            buf.putShort((short)(record.extra.length + zip64Length));
+            buf.putShort((short)record.comment.length);
+            buf.putShort((short)0);
+            buf.putShort((short)record.internalAttributes);
+            buf.putInt(record.externalAttributes);
+            buf.putInt((int)(zip64 ? ZIP64_MAGIC : record.localOffset));
+            buf.put(record.name);
+            if (zip64) {
+                buf.putShort((short)ZIP64_EXTRA);
+                buf.putShort((short)24);
+                buf.putLong(record.size);
+                buf.putLong(record.compressedSize);
+                buf.putLong(record.localOffset);
+            }
+            buf.put(record.extra);
+            buf.put(record.comment);
+        }
+
+        long size = position() - start;
+        long count = this.records.size();
+        boolean zip64 = count >= 0xFFFF || size >= ZIP64_MAGIC || start >= ZIP64_MAGIC;
+
+        ByteBuffer buf = reserve(56 + 20 + 22);
+        if (zip64) {
+            long end64 = position();
+            buf.putInt(ZIP64_END_HEADER);
+            buf.putLong(44);
+            buf.putShort((short)45);
+            buf.putShort((short)45);
+            buf.putInt(0);
+            buf.putInt(0);
+            buf.putLong(count);
+            buf.putLong(count);
+            buf.putLong(size);
+            buf.putLong(start);
+
+            buf.putInt(ZIP64_LOCATOR);
+            buf.putInt(0);
+            buf.putLong(end64);
+            buf.putInt(1);
+        }
+        buf.putInt(END_HEADER);
+        buf.putShort((short)0);
+        buf.putShort((short)0);
+        buf.putShort((short)Math.min(count, 0xFFFF));
+        buf.putShort((short)Math.min(count, 0xFFFF));
+        buf.putInt((int)Math.min(size, ZIP64_MAGIC));
+        buf.putInt((int)Math.min(start, ZIP64_MAGIC));
+        buf.putShort((short)0);
+        flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+        if (!this.finished && this.file != null)
+            Files.deleteIfExists(this.file.toPath());
+    }
+
+    private long position() {
+        return this.written + this.buf.position();
+    }
+
+    private ByteBuffer reserve(int size) throws IOException {
+        if (this.buf.remaining() < size)
+            flush();
+        return this.buf;
+    }
+
+    private void flush() throws IOException {
+        this.buf.flip();
+        writeFully(this.buf);
+        this.buf.clear();
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining())
+            this.written += this.channel.write(data);
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buf = new byte[0x2000];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buf);
+                compressed.write(buf, 0, len);
+            }
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    private static int versionNeeded(Record record, boolean zip64) {
+        return zip64 ? 45 : record.method == ZipEntry.DEFLATED ? 20 : 10;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int x = 0; x < value.length(); x++) {
+            if (value.charAt(x) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    /** Removes any zip64 data, we write our own when it's needed. Timestamps are removed too when we're reproducible. */
+    private byte[] stripExtra(byte[] extra) {
+        ByteBuffer in = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = null;
+        while (in.remaining() >= 4) {
+            int start = in.position();
+            int id = in.getShort() & 0xFFFF;
+            int len = Math.min(in.getShort() & 0xFFFF, in.remaining());
+            in.position(in.position() + len);
+            if (id == ZIP64_EXTRA || (this.reproducible && (id == EXTRA_TIMESTAMP || id == EXTRA_NTFS || id == EXTRA_UNIX))) {
+                if (out == null) {
+                    out = ByteBuffer.allocate(extra.length);
+                    out.put(extra, 0, start);
+                }
+            } else if (out != null) {
+                out.put(extra, start, len + 4);
+            }
+        }
+        if (out == null)
+            return extra;
+        byte[] ret = new byte[out.position()];
+        System.arraycopy(out.array(), 0, ret, 0, ret.length);
+        return ret;
+    }
+
+    private static final class Record {
+        private byte[] name;
+        private int versionMadeBy;
+        private int flags;
+        private int method;
+        private long dosTime;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private int internalAttributes;
+        private int externalAttributes;
+        private long localOffset;
+        private byte[] extra;
+        private byte[] comment;
+    }
+}
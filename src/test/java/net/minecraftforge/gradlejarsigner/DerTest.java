@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/** Round trips what {@link Pkcs7} encodes through {@link Der}. */
+public class DerTest {
+    @Test
+    public void oids() throws Exception {
+        for (String oid : new String[] { Pkcs7.OID_SIGNED_DATA, Pkcs7.OID_TIMESTAMP_TOKEN, "2.16.840.1.101.3.4.2.1", "2.999.3", "1.3.6.1.4.1.311.2.1.21" })
+            assertEquals(oid, Der.read(Pkcs7.oid(oid), 0).oid());
+    }
+
+    @Test
+    public void integers() throws Exception {
+        for (BigInteger value : new BigInteger[] { BigInteger.ZERO, BigInteger.valueOf(127), BigInteger.valueOf(128), BigInteger.valueOf(-129), BigInteger.ONE.shiftLeft(160) })
+            assertEquals(value, Der.read(Pkcs7.integer(value), 0).expect(Pkcs7.INTEGER).integer());
+    }
+
+    @Test
+    public void lengths() throws Exception {
+        // Short form, and long form with one, two and three length bytes
+        for (int length : new int[] { 0, 0x7F, 0x80, 0xFF, 0x100, 0xFFFF, 0x10000 }) {
+            byte[] value = new byte[length];
+            Arrays.fill(value, (byte)7);
+            byte[] encoded = Pkcs7.tag(Pkcs7.OCTET_STRING, value);
+            Der der = Der.read(encoded, 0).expect(Pkcs7.OCTET_STRING);
+            assertArrayEquals(value, der.value(), "Length " + length);
+            assertArrayEquals(encoded, der.encoded(), "Length " + length);
+        }
+    }
+
+    @Test
+    public void children() throws Exception {
+        byte[] encoded = Pkcs7.tag(Pkcs7.SEQUENCE,
+            Pkcs7.algorithm("2.16.840.1.101.3.4.2.1", true),
+            Pkcs7.tag(0xA0, Pkcs7.integer(BigInteger.TEN)),
+            Pkcs7.tag(Pkcs7.OCTET_STRING, new byte[300])
+        );
+
+        List<Der> children = Der.read(encoded, 0).expect(Pkcs7.SEQUENCE).children();
+        assertEquals(3, children.size());
+        List<Der> algorithm = children.get(0).expect(Pkcs7.SEQUENCE).children();
+        assertEquals("2.16.840.1.101.3.4.2.1", algorithm.get(0).oid());
+        assertEquals(Pkcs7.NULL, algorithm.get(1).tag);
+        assertEquals(BigInteger.TEN, children.get(1).expect(0xA0).child(0).integer());
+        assertEquals(300, children.get(2).value().length);
+        assertThrows(IOException.class, () -> children.get(1).child(1));
+    }
+
+    @Test
+    public void times() throws Exception {
+        assertEquals(1706745599000L, time("20240131235959Z"));
+        assertEquals(1706745599500L, time("20240131235959.5Z"));
+        assertEquals(1706745599123L, time("20240131235959.123Z"));
+        assertThrows(IOException.class, () -> time("20240131235959"));
+        assertThrows(IOException.class, () -> time("20241331235959Z"));
+    }
+
+    @Test
+    public void malformed() {
+        assertThrows(IOException.class, () -> Der.read(new byte[] { Pkcs7.SEQUENCE }, 0));
+        assertThrows(IOException.class, () -> Der.read(new byte[] { Pkcs7.SEQUENCE, 5, 0 }, 0));
+        assertThrows(IOException.class, () -> Der.read(new byte[] { Pkcs7.SEQUENCE, (byte)0x80, 0, 0 }, 0));
+        assertThrows(IOException.class, () -> Der.read(Pkcs7.integer(BigInteger.ONE), 0).expect(Pkcs7.SEQUENCE));
+    }
+
+    private static long time(String value) throws IOException {
+        return Der.read(Pkcs7.tag(Pkcs7.GENERALIZED_TIME, value.getBytes(StandardCharsets.US_ASCII)), 0).time().getTime();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.junit.jupiter.api.Test;
+
+public class JarManifestTest {
+    private static final String LONG = "net/example/" + String.join("/", Collections.nCopies(10, "ümlaut_package")) + "/Entry.class";
+
+    @Test
+    public void keepsExistingAttributes() throws Exception {
+        String existing = "Manifest-Version: 1.0\r\nMain-Class: net.example.Main\r\nAutomatic-Module-Name: net.example\r\n\r\n" +
+            "Name: net/example/Main.class\r\nSHA-256-Digest: old\r\nCustom: value\r\n\r\n";
+        JarManifest manifest = new JarManifest(existing.getBytes(StandardCharsets.UTF_8), "SHA-256", "Test");
+        manifest.put("net/example/Main.class", new byte[32]);
+
+        Manifest parsed = new Manifest(new ByteArrayInputStream(manifest.getManifest()));
+        assertEquals("net.example.Main", parsed.getMainAttributes().getValue("Main-Class"));
+        assertEquals("net.example", parsed.getMainAttributes().getValue("Automatic-Module-Name"));
+        Attributes section = parsed.getAttributes("net/example/Main.class");
+        assertEquals("value", section.getValue("Custom"));
+        assertEquals(Base64.getEncoder().encodeToString(new byte[32]), section.getValue("SHA-256-Digest"));
+    }
+
+    @Test
+    public void wrapsLongLines() throws Exception {
+        JarManifest manifest = new JarManifest(null, "SHA-256", "Test");
+        manifest.put(LONG, new byte[32]);
+        byte[] data = manifest.getManifest();
+
+        for (String line : new String(data, StandardCharsets.UTF_8).split("\r\n"))
+            assertTrue(line.getBytes(StandardCharsets.UTF_8).length <= 72, "Line is too long: " + line);
+        Manifest parsed = new Manifest(new ByteArrayInputStream(data));
+        assertEquals("Test", parsed.getMainAttributes().getValue("Created-By"));
+        assertEquals(Collections.singleton(LONG), parsed.getEntries().keySet());
+    }
+
+    @Test
+    public void signatureFileDigestsSections() throws Exception {
+        JarManifest manifest = new JarManifest(null, "SHA-256", "Test");
+        manifest.put("b", new byte[32]);
+        manifest.put("a", new byte[32]);
+        manifest.put(LONG, new byte[32]);
+        manifest.sortSections();
+        byte[] data = manifest.getManifest();
+        Manifest sf = new Manifest(new ByteArrayInputStream(manifest.getSignatureFile("Test")));
+
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        Base64.Encoder b64 = Base64.getEncoder();
+        assertEquals(b64.encodeToString(md.digest(data)), sf.getMainAttributes().getValue("SHA-256-Digest-Manifest"));
+
+        // Every section is digested as the exact bytes from its name up to and including the blank line after it
+        String text = new String(data, StandardCharsets.UTF_8);
+        List<String> names = new ArrayList<>();
+        int start = text.indexOf("\r\n\r\n") + 4;
+        assertEquals(b64.encodeToString(md.digest(text.substring(0, start).getBytes(StandardCharsets.UTF_8))), sf.getMainAttributes().getValue("SHA-256-Digest-Manifest-Main-Attributes"));
+        while (start < text.length()) {
+            int end = text.indexOf("\r\n\r\n", start) + 4;
+            byte[] section = text.substring(start, end).getBytes(StandardCharsets.UTF_8);
+            String name = new Manifest(new ByteArrayInputStream(("Manifest-Version: 1.0\r\n\r\n" + text.substring(start, end)).getBytes(StandardCharsets.UTF_8))).getEntries().keySet().iterator().next();
+            names.add(name);
+            assertEquals(b64.encodeToString(md.digest(section)), sf.getAttributes(name).getValue("SHA-256-Digest"), name);
+            start = end;
+        }
+        List<String> sorted = new ArrayList<>(names);
+        Collections.sort(sorted);
+        assertEquals(sorted, names, "Sections are not sorted");
+        assertEquals(3, names.size());
+    }
+}
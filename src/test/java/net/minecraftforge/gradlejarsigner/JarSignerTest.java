@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.gradle.api.tasks.util.PatternSet;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class JarSignerTest {
+    private static final String ALIAS = "signer";
+
+    @TempDir
+    static File keys;
+    private static SigningKey key;
+
+    @TempDir
+    File dir;
+
+    @BeforeAll
+    static void createKey() throws Exception {
+        key = TestJars.loadKey(TestJars.createKeyStore(keys, ALIAS), ALIAS);
+    }
+
+    private static Map<String, byte[]> entries() {
+        Random random = new Random(42);
+        byte[] binary = new byte[100_000];
+        random.nextBytes(binary);
+
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        ret.put(JarSigner.MANIFEST, TestJars.manifest());
+        ret.put("net/", new byte[0]);
+        ret.put("net/example/Main.class", "deflated class".getBytes(StandardCharsets.UTF_8));
+        ret.put("net/example/data.stored", binary);
+        ret.put("net/example/empty.txt", new byte[0]);
+        ret.put("net/example/résumé.txt", "utf-8 name".getBytes(StandardCharsets.UTF_8));
+        return ret;
+    }
+
+    @Test
+    public void signsStoredAndDeflatedEntries() throws Exception {
+        File input = new File(this.dir, "input.jar");
+        File output = new File(this.dir, "output.jar");
+        TestJars.create(input, entries());
+
+        TestJars.signer(ALIAS, key, false).sign(input, output, null, null, null);
+
+        TestJars.assertSigned(output, 1);
+        TestJars.assertVerifies(output);
+        TestJars.assertJarsignerVerifies(output);
+        try (JarFile jar = new JarFile(output)) {
+            assertEquals(ZipEntry.STORED, jar.getEntry("net/example/data.stored").getMethod(), "Stored entry was compressed");
+            assertEquals(ZipEntry.DEFLATED, jar.getEntry("net/example/Main.class").getMethod(), "Deflated entry was stored");
+            assertEquals("net.example.Main", jar.getManifest().getMainAttributes().getValue("Main-Class"), "Main attributes were lost");
+        }
+    }
+
+    @Test
+    public void signsJarWithoutManifest() throws Exception {
+        Map<String, byte[]> entries = entries();
+        entries.remove(JarSigner.MANIFEST);
+        File input = new File(this.dir, "input.jar");
+        File output = new File(this.dir, "output.jar");
+        TestJars.create(input, entries);
+
+        TestJars.signer(ALIAS, key, false).sign(input, output, null, null, null);
+
+        TestJars.assertSigned(output, 1);
+        TestJars.assertJarsignerVerifies(output);
+    }
+
+    @Test
+    public void signsZip64() throws Exception {
+        // More entries than the regular end of central directory record can count
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(JarSigner.MANIFEST, TestJars.manifest());
+        for (int x = 0; x < 70_000; x++)
+            entries.put("net/example/Entry" + x + ".class", ("entry " + x).getBytes(StandardCharsets.UTF_8));
+        File input = new File(this.dir, "input.jar");
+        File output = new File(this.dir, "output.jar");
+        TestJars.create(input, entries);
+
+        TestJars.signer(ALIAS, key, false).sign(input, output, null, null, null);
+
+        try (ZipFile zip = new ZipFile(output)) {
+            // Manifest, signature file and block
+            assertEquals(entries.size() + 2, zip.size(), "Entries");
+        }
+        TestJars.assertSigned(output, 1);
+        TestJars.assertJarsignerVerifies(output);
+    }
+
+    @Test
+    public void keepsExistingSignatures() throws Exception {
+        File second = TestJars.createKeyStore(this.dir, "second");
+        File input = new File(this.dir, "input.jar");
+        File signed = new File(this.dir, "signed.jar");
+        File output = new File(this.dir, "output.jar");
+        TestJars.create(input, entries());
+
+        TestJars.signer(ALIAS, key, false).sign(input, signed, null, null, null);
+        TestJars.signer("second", TestJars.loadKey(second, "second"), false).sign(signed, output, null, null, null);
+
+        try (JarFile jar = new JarFile(output)) {
+            assertNotNull(jar.getEntry("META-INF/SIGNER.SF"), "First signature file was removed");
+            assertNotNull(jar.getEntry("META-INF/SECOND.SF"), "Second signature file is missing");
+        }
+        TestJars.assertSigned(output, 2);
+        TestJars.assertVerifies(output);
+        TestJars.assertJarsignerVerifies(output);
+    }
+
+    @Test
+    public void skipsJarAlreadySigned() throws Exception {
+        File input = new File(this.dir, "input.jar");
+        File signed = new File(this.dir, "signed.jar");
+        File output = new File(this.dir, "output.jar");
+        TestJars.create(input, entries());
+
+        TestJars.signer(ALIAS, key, false).sign(input, signed, null, null, null);
+        SignReport report = TestJars.signer(ALIAS, key, false).sign(signed, output, null, null, null);
+
+        assertTrue(report.skipped, "Signed jar was signed again");
+        assertArrayEquals(Files.readAllBytes(signed.toPath()), Files.readAllBytes(output.toPath()), "Signed jar was changed");
+    }
+
+    @Test
+    public void leavesExcludedEntriesUnsigned() throws Exception {
+        File input = new File(this.dir, "input.jar");
+        File output = new File(this.dir, "output.jar");
+        TestJars.create(input, entries());
+
+        TestJars.signer(ALIAS, key, false).sign(input, output, name -> !name.endsWith(".txt"), null, null);
+
+        TestJars.assertSigned(output, 1, "net/example/empty.txt", "net/example/résumé.txt");
+        TestJars.assertJarsignerVerifies(output);
+        JarVerifier.Result result = new JarVerifier(2).verify(output);
+        assertEquals(Collections.emptyList(), result.errors, "Verification errors");
+        assertEquals(2, result.unsigned.size(), "Unsigned entries");
+    }
+
+    @Test
+    public void signsNestedJars() throws Exception {
+        Map<String, byte[]> inner = new LinkedHashMap<>();
+        inner.put(JarSigner.MANIFEST, TestJars.manifest());
+        inner.put("net/inner/Inner.class", "inner class".getBytes(StandardCharsets.UTF_8));
+        Map<String, byte[]> library = new LinkedHashMap<>();
+        library.put(JarSigner.MANIFEST, TestJars.manifest());
+        library.put("net/library/Library.class", "library class".getBytes(StandardCharsets.UTF_8));
+        library.put("META-INF/jarjar/inner.jar", TestJars.create(inner));
+
+        Map<String, byte[]> entries = entries();
+        entries.put("META-INF/jarjar/library.jar", TestJars.create(library));
+        entries.put("META-INF/jarjar/other.zip", TestJars.create(inner));
+        File input = new File(this.dir, "input.jar");
+        File output = new File(this.dir, "output.jar");
+        TestJars.create(input, entries);
+
+        EntryFilter nested = EntryFilter.of(new PatternSet().include("META-INF/jarjar/*.jar"));
+        TestJars.signer(ALIAS, key, false).sign(input, output, null, null, nested);
+
+        TestJars.assertSigned(output, 1);
+        TestJars.assertJarsignerVerifies(output);
+        try (ZipFile zip = new ZipFile(output)) {
+            byte[] signedLibrary = read(zip, "META-INF/jarjar/library.jar");
+            TestJars.assertSigned(signedLibrary, 1);
+            try (ZipArchive archive = ZipArchive.open(signedLibrary, "library.jar")) {
+                TestJars.assertSigned(archive.readAll(archive.getEntry("META-INF/jarjar/inner.jar")), 1);
+            }
+            assertArrayEquals(entries.get("META-INF/jarjar/other.zip"), read(zip, "META-INF/jarjar/other.zip"), "Archive that didn't match was changed");
+        }
+    }
+
+    @Test
+    public void reproducibleIsIdentical() throws Exception {
+        // Same entries in a different order, written at a different time
+        Map<String, byte[]> entries = entries();
+        Map<String, byte[]> reversed = new LinkedHashMap<>();
+        reversed.put(JarSigner.MANIFEST, entries.remove(JarSigner.MANIFEST));
+        String[] names = entries.keySet().toArray(new String[0]);
+        for (int x = names.length - 1; x >= 0; x--)
+            reversed.put(names[x], entries.get(names[x]));
+        entries.put(JarSigner.MANIFEST, reversed.get(JarSigner.MANIFEST));
+
+        File first = new File(this.dir, "first.jar");
+        File second = new File(this.dir, "second.jar");
+        TestJars.create(first, entries);
+        Thread.sleep(2000);
+        TestJars.create(second, reversed);
+
+        File firstOut = new File(this.dir, "first-signed.jar");
+        File secondOut = new File(this.dir, "second-signed.jar");
+        TestJars.signer(ALIAS, key, true).sign(first, firstOut, null, null, null);
+        TestJars.signer(ALIAS, key, true).sign(second, secondOut, null, null, null);
+
+        assertArrayEquals(Files.readAllBytes(firstOut.toPath()), Files.readAllBytes(secondOut.toPath()), "Reproducible jars differ");
+        TestJars.assertSigned(firstOut, 1);
+        TestJars.assertJarsignerVerifies(firstOut);
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(entry, name + " is missing");
+        try (InputStream in = zip.getInputStream(entry)) {
+            byte[] ret = new byte[(int)entry.getSize()];
+            int read = 0;
+            while (read < ret.length) {
+                int len = in.read(ret, read, ret.length - read);
+                if (len < 0)
+                    break;
+                read += len;
+            }
+            return ret;
+        }
+    }
+}
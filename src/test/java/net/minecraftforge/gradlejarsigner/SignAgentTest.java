@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SignAgentTest {
+    private static final String ALIAS = "agent";
+
+    @TempDir
+    File dir;
+    private SigningKey local;
+    private File file;
+    private SignAgent agent;
+
+    @BeforeEach
+    void start() throws Exception {
+        this.local = TestJars.loadKey(TestJars.createKeyStore(this.dir, ALIAS), ALIAS);
+        this.file = new File(this.dir, "agent/agent.properties");
+        this.agent = new SignAgent(Collections.singletonMap(ALIAS, this.local), 0, this.file);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        this.agent.close();
+    }
+
+    @Test
+    public void signsThroughAgent() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(JarSigner.MANIFEST, TestJars.manifest());
+        entries.put("net/example/Main.class", "class".getBytes(StandardCharsets.UTF_8));
+        entries.put("net/example/data.stored", new byte[1000]);
+        File input = new File(this.dir, "input.jar");
+        File output = new File(this.dir, "output.jar");
+        File reference = new File(this.dir, "reference.jar");
+        TestJars.create(input, entries);
+
+        // The same way a task with an agent file and alias resolves its key
+        KeySource source = new KeySource(this.file, ALIAS, null);
+        SigningKey remote = source.load(null);
+        assertNull(remote.key, "Agent sent the private key");
+        assertEquals(this.local.getFingerprint(), source.getFingerprint(null), "Fingerprint");
+
+        TestJars.signer(ALIAS, remote, true).sign(input, output, null, null, null);
+
+        TestJars.assertSigned(output, 1);
+        TestJars.assertVerifies(output);
+        TestJars.assertJarsignerVerifies(output);
+        // RSA signatures are deterministic, so the agent has to give exactly what signing locally does
+        TestJars.signer(ALIAS, this.local, true).sign(input, reference, null, null, null);
+        assertArrayEquals(Files.readAllBytes(reference.toPath()), Files.readAllBytes(output.toPath()), "Agent signed jar differs");
+    }
+
+    @Test
+    public void refusesBadToken() throws Exception {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(this.file.toPath())) {
+            props.load(in);
+        }
+        props.setProperty("token", Base64.getEncoder().encodeToString(new byte[32]));
+        File bad = new File(this.dir, "bad.properties");
+        try (OutputStream out = Files.newOutputStream(bad.toPath())) {
+            props.store(out, null);
+        }
+
+        assertThrows(IOException.class, () -> new KeySource(bad, ALIAS, null).load(null));
+
+        // A sign request after the wrong token isn't answered at all, the connection is just closed
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(props.getProperty("port")))) {
+            socket.setSoTimeout(10_000);
+            int read;
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(0x4A534741); // JSGA, protocol version 1 and an all zero token
+                out.writeInt(1);
+                out.writeInt(32);
+                out.write(new byte[32]);
+                out.writeByte(2); // Sign
+                out.writeUTF(ALIAS);
+                out.writeUTF("SHA256withRSA");
+                out.writeInt(4);
+                out.write(new byte[4]);
+                out.flush();
+                read = socket.getInputStream().read();
+            } catch (SocketException e) {
+                // Closed before all of the request was written or read, which breaks or resets the connection instead
+                read = -1;
+            }
+            assertEquals(-1, read, "Agent answered a request with a bad token");
+        }
+    }
+
+    @Test
+    public void refusesUnknownAlias() {
+        GeneralSecurityException e = assertThrows(GeneralSecurityException.class, () -> SignAgent.connect(this.file, "unknown"));
+        assertTrue(e.getMessage().contains("unknown"), e.getMessage());
+    }
+
+    @Test
+    public void closeRemovesFile() throws Exception {
+        assertTrue(this.file.exists(), "Agent file was not written");
+        this.agent.close();
+        assertFalse(this.file.exists(), "Agent file was left behind");
+        assertThrows(IOException.class, () -> SignAgent.connect(this.file, ALIAS));
+    }
+}
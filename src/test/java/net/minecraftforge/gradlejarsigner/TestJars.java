@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/** Keystores and jars for the tests, generated with the same tools people use for real ones. */
+final class TestJars {
+    static final String PASSWORD = "password";
+    static final Logger LOGGER = Logging.getLogger(TestJars.class);
+
+    private TestJars() {}
+
+    /**
+     * Creates a PKCS12 keystore with a self signed RSA key.
+     *
+     * @param extra Additional keytool arguments, like an extension
+     */
+    static File createKeyStore(File dir, String alias, String... extra) throws IOException, InterruptedException {
+        File keyStore = new File(dir, alias + ".p12");
+        List<String> args = new ArrayList<>(Arrays.asList(
+            "-genkeypair",
+            "-alias", alias,
+            "-keyalg", "RSA",
+            "-keysize", "2048",
+            "-validity", "1",
+            "-dname", "CN=" + alias,
+            "-storetype", "PKCS12",
+            "-keystore", keyStore.getAbsolutePath(),
+            "-storepass", PASSWORD,
+            "-keypass", PASSWORD
+        ));
+        args.addAll(Arrays.asList(extra));
+        String output = run("keytool", args);
+        assertTrue(keyStore.exists(), () -> "keytool did not create a keystore: " + output);
+        return keyStore;
+    }
+
+    static SigningKey loadKey(File keyStore, String alias) throws Exception {
+        return SigningKey.load(Files.readAllBytes(keyStore.toPath()), "PKCS12", null, null, PASSWORD, alias, PASSWORD);
+    }
+
+    static JarSigner signer(String alias, SigningKey key, boolean reproducible) {
+        return new JarSigner(Collections.singletonMap(alias, key), LOGGER, false, 2, null, reproducible, JarSigner.DEFAULT_DIGEST, Collections.emptyMap());
+    }
+
+    /**
+     * Writes a jar with the given entries, in order. Entries are deflated unless their name ends with {@code .stored},
+     * and a name ending in {@code /} is a directory.
+     */
+    static void create(File file, Map<String, byte[]> entries) throws IOException {
+        Files.write(file.toPath(), create(entries));
+    }
+
+    static byte[] create(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(data)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zip = new ZipEntry(entry.getKey());
+                byte[] value = entry.getValue();
+                if (entry.getKey().endsWith(".stored") || entry.getKey().endsWith("/")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(value);
+                    zip.setMethod(ZipEntry.STORED);
+                    zip.setSize(value.length);
+                    zip.setCrc(crc.getValue());
+                }
+                out.putNextEntry(zip);
+                out.write(value);
+                out.closeEntry();
+            }
+        }
+        return data.toByteArray();
+    }
+
+    static byte[] manifest() {
+        return "Manifest-Version: 1.0\r\nMain-Class: net.example.Main\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads every entry the way the JDK does when loading classes, and checks the expected ones are signed by the
+     * given number of signers, and the rest aren't signed at all.
+     */
+    static void assertSigned(File jar, int signers, String... unsigned) throws IOException {
+        List<String> expected = Arrays.asList(unsigned);
+        int count = 0;
+        try (JarFile file = new JarFile(jar, true)) {
+            for (Enumeration<JarEntry> entries = file.entries(); entries.hasMoreElements(); ) {
+                JarEntry entry = entries.nextElement();
+                try (InputStream in = file.getInputStream(entry)) {
+                    drain(in);
+                }
+                if (entry.isDirectory() || JarSigner.isSignatureRelated(entry.getName()))
+                    continue;
+
+                if (expected.contains(entry.getName())) {
+                    assertNull(entry.getCodeSigners(), entry.getName() + " should not be signed");
+                } else {
+                    assertNotNull(entry.getCodeSigners(), entry.getName() + " is not signed");
+                    assertEquals(signers, entry.getCodeSigners().length, entry.getName() + " signers");
+                }
+                count++;
+            }
+        }
+        assertTrue(count > 0, "Jar has no entries");
+    }
+
+    /** Same as {@link #assertSigned(File, int, String...)}, for a jar that is only available as bytes, like a nested one. */
+    static void assertSigned(byte[] jar, int signers) throws IOException {
+        int count = 0;
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(jar), true)) {
+            for (JarEntry entry = in.getNextJarEntry(); entry != null; entry = in.getNextJarEntry()) {
+                drain(in);
+                if (entry.isDirectory() || JarSigner.isSignatureRelated(entry.getName()))
+                    continue;
+                assertNotNull(entry.getCodeSigners(), entry.getName() + " is not signed");
+                assertEquals(signers, entry.getCodeSigners().length, entry.getName() + " signers");
+                count++;
+            }
+        }
+        assertTrue(count > 0, "Jar has no entries");
+    }
+
+    /** Runs the JDK's jarsigner over the jar, which fails if any signature or digest is wrong. */
+    static void assertJarsignerVerifies(File jar) throws IOException, InterruptedException {
+        String output = run("jarsigner", Arrays.asList("-verify", jar.getAbsolutePath()));
+        assertTrue(output.contains("jar verified."), () -> "jarsigner did not verify " + jar + ":\n" + output);
+    }
+
+    static void assertVerifies(File jar) throws IOException {
+        JarVerifier.Result result = new JarVerifier(2).verify(jar);
+        assertEquals(Collections.emptyList(), result.errors, "Verification errors");
+    }
+
+    private static String run(String tool, List<String> args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(getTool(tool));
+        command.addAll(args);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output;
+        try (InputStream in = process.getInputStream()) {
+            output = new String(drain(in), StandardCharsets.UTF_8);
+        }
+        if (!process.waitFor(2, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            throw new IOException(tool + " timed out:\n" + output);
+        }
+        assertEquals(0, process.exitValue(), () -> tool + " failed:\n" + output);
+        return output;
+    }
+
+    private static String getTool(String name) {
+        String exe = System.getProperty("os.name").toLowerCase().startsWith("windows") ? name + ".exe" : name;
+        File home = new File(System.getProperty("java.home"));
+        File tool = new File(home, "bin/" + exe);
+        // Java 8's java.home is the JRE inside the JDK, which doesn't have jarsigner
+        if (!tool.exists())
+            tool = new File(home.getParentFile(), "bin/" + exe);
+        return tool.getAbsolutePath();
+    }
+
+    private static byte[] drain(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[0x2000];
+        int len;
+        while ((len = in.read(buf)) != -1)
+            out.write(buf, 0, len);
+        return out.toByteArray();
+    }
+}
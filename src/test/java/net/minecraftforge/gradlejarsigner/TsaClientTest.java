@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.CertificateException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class TsaClientTest {
+    private static final String TST_INFO = "1.2.840.113549.1.9.16.1.4";
+    private static final String SHA256 = "2.16.840.1.101.3.4.2.1";
+    private static final String RSA = "1.2.840.113549.1.1.1";
+    private static final byte[] SIGNATURE = "signature over a signature file".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    static File keys;
+    private static SigningKey tsaKey;
+    private static SigningKey codeKey;
+
+    @TempDir
+    File dir;
+    private HttpServer server;
+    private ExecutorService executor;
+    private String url;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    // What the stand in TSA does with the next request
+    private volatile int failures;
+    private volatile int status = 503;
+    private volatile long delay;
+    private volatile boolean wrongImprint;
+    private volatile boolean badSignature;
+    private volatile SigningKey key;
+
+    @BeforeAll
+    static void createKeys() throws Exception {
+        tsaKey = TestJars.loadKey(TestJars.createKeyStore(keys, "tsa", "-ext", "EKU:critical=timeStamping"), "tsa");
+        codeKey = TestJars.loadKey(TestJars.createKeyStore(keys, "code", "-ext", "EKU=codeSigning"), "code");
+    }
+
+    @BeforeEach
+    void start() throws IOException {
+        this.key = tsaKey;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", exchange -> {
+            int request = this.requests.incrementAndGet();
+            byte[] body = readAll(exchange.getRequestBody());
+            try {
+                if (request <= this.failures && this.delay > 0)
+                    Thread.sleep(this.delay);
+                if (request <= this.failures && this.delay == 0) {
+                    exchange.sendResponseHeaders(this.status, -1);
+                } else {
+                    byte[] response = respond(body);
+                    exchange.getResponseHeaders().set("Content-Type", "application/timestamp-reply");
+                    exchange.sendResponseHeaders(200, response.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(response);
+                    }
+                }
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        // Requests that time out are still being handled when the retry comes in
+        this.executor = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.executor);
+        this.server.start();
+        this.url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/tsa";
+    }
+
+    @AfterEach
+    void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private TsaClient client(int retries, File cache) throws IOException {
+        return new TsaClient(this.url, 500, retries, cache, TestJars.LOGGER);
+    }
+
+    @Test
+    public void timestamps() throws Exception {
+        byte[] token = client(0, null).timestamp(SIGNATURE);
+
+        assertEquals(1, this.requests.get(), "Requests");
+        Date time = JarVerifier.checkTimestamp(token, SIGNATURE);
+        assertTrue(Math.abs(time.getTime() - System.currentTimeMillis()) < 60_000, "Timestamp is for " + time);
+    }
+
+    @Test
+    public void retriesServerErrors() throws Exception {
+        this.failures = 1;
+        byte[] token = client(1, null).timestamp(SIGNATURE);
+
+        assertEquals(2, this.requests.get(), "Requests");
+        JarVerifier.checkTimestamp(token, SIGNATURE);
+    }
+
+    @Test
+    public void retriesTimeouts() throws Exception {
+        this.failures = 1;
+        this.delay = 2000;
+        byte[] token = client(1, null).timestamp(SIGNATURE);
+
+        assertEquals(2, this.requests.get(), "Requests");
+        JarVerifier.checkTimestamp(token, SIGNATURE);
+    }
+
+    @Test
+    public void givesUpAfterRetries() throws Exception {
+        this.failures = 2;
+        assertThrows(IOException.class, () -> client(1, null).timestamp(SIGNATURE));
+        assertEquals(2, this.requests.get(), "Requests");
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        this.failures = 1;
+        this.status = 400;
+        assertThrows(IOException.class, () -> client(3, null).timestamp(SIGNATURE));
+        assertEquals(1, this.requests.get(), "Requests");
+    }
+
+    @Test
+    public void reusesCachedToken() throws Exception {
+        File cache = new File(this.dir, "cache");
+        byte[] first = client(0, cache).timestamp(SIGNATURE);
+        byte[] second = client(0, cache).timestamp(SIGNATURE);
+
+        assertEquals(1, this.requests.get(), "Cached token was not used");
+        assertArrayEquals(first, second, "Tokens");
+
+        client(0, cache).timestamp("another signature".getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, this.requests.get(), "Cached token was used for another signature");
+    }
+
+    @Test
+    public void ignoresTamperedCachedToken() throws Exception {
+        File cache = new File(this.dir, "cache");
+        client(0, cache).timestamp(SIGNATURE);
+        File[] files = cache.listFiles();
+        assertEquals(1, files.length, "Cached tokens");
+
+        // The TSA's signature is at the end of the token
+        byte[] token = Files.readAllBytes(files[0].toPath());
+        token[token.length - 1] ^= 1;
+        Files.write(files[0].toPath(), token);
+
+        byte[] fresh = client(0, cache).timestamp(SIGNATURE);
+        assertEquals(2, this.requests.get(), "Tampered token was used");
+        JarVerifier.checkTimestamp(fresh, SIGNATURE);
+    }
+
+    @Test
+    public void rejectsMismatchedImprint() throws Exception {
+        this.wrongImprint = true;
+        IOException e = assertThrows(IOException.class, () -> client(3, null).timestamp(SIGNATURE));
+        assertTrue(e.getMessage().contains("different signature"), e.getMessage());
+        assertEquals(1, this.requests.get(), "Requests");
+    }
+
+    @Test
+    public void rejectsBadSignature() throws Exception {
+        this.badSignature = true;
+        File cache = new File(this.dir, "cache");
+        assertThrows(GeneralSecurityException.class, () -> client(0, cache).timestamp(SIGNATURE));
+        assertTrue(!cache.exists() || cache.listFiles().length == 0, "Rejected token was cached");
+    }
+
+    @Test
+    public void rejectsCertificateThatIsNotTsa() throws Exception {
+        this.key = codeKey;
+        GeneralSecurityException e = assertThrows(GeneralSecurityException.class, () -> client(0, null).timestamp(SIGNATURE));
+        assertTrue(e.getCause() instanceof CertificateException, e.toString());
+    }
+
+    /** Answers a TimeStampReq with a token signed without signed attributes, which is the simplest form RFC 3161 allows. */
+    private byte[] respond(byte[] body) throws Exception {
+        // TimeStampReq ::= SEQUENCE { version, messageImprint, reqPolicy OPTIONAL, nonce OPTIONAL, certReq DEFAULT FALSE, ... }
+        List<Der> req = Der.read(body, 0).expect(Pkcs7.SEQUENCE).children();
+        byte[] imprint = req.get(1).encoded();
+        byte[] nonce = req.get(2).expect(Pkcs7.INTEGER).encoded();
+        if (this.wrongImprint) {
+            imprint = Pkcs7.tag(Pkcs7.SEQUENCE,
+                Pkcs7.algorithm(SHA256, false),
+                Pkcs7.tag(Pkcs7.OCTET_STRING, MessageDigest.getInstance("SHA-256").digest(new byte[1]))
+            );
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        byte[] tstInfo = Pkcs7.tag(Pkcs7.SEQUENCE,
+            Pkcs7.integer(BigInteger.ONE),
+            Pkcs7.oid("1.2.3.4"),
+            imprint,
+            Pkcs7.integer(BigInteger.valueOf(this.requests.get())),
+            Pkcs7.tag(Pkcs7.GENERALIZED_TIME, format.format(new Date()).getBytes(StandardCharsets.US_ASCII)),
+            nonce
+        );
+
+        Signature sig = Signature.getInstance("SHA256withRSA");
+        sig.initSign(this.key.key);
+        sig.update(tstInfo);
+        byte[] signature = sig.sign();
+        if (this.badSignature)
+            signature[0] ^= 1;
+
+        byte[] signerInfo = Pkcs7.tag(Pkcs7.SEQUENCE,
+            Pkcs7.integer(BigInteger.ONE),
+            Pkcs7.tag(Pkcs7.SEQUENCE,
+                this.key.chain[0].getIssuerX500Principal().getEncoded(),
+                Pkcs7.integer(this.key.chain[0].getSerialNumber())
+            ),
+            Pkcs7.algorithm(SHA256, false),
+            Pkcs7.algorithm(RSA, true),
+            Pkcs7.tag(Pkcs7.OCTET_STRING, signature)
+        );
+        byte[] token = Pkcs7.tag(Pkcs7.SEQUENCE,
+            Pkcs7.oid(Pkcs7.OID_SIGNED_DATA),
+            Pkcs7.tag(0xA0, Pkcs7.tag(Pkcs7.SEQUENCE,
+                Pkcs7.integer(BigInteger.valueOf(3)),
+                Pkcs7.tag(Pkcs7.SET, Pkcs7.algorithm(SHA256, false)),
+                Pkcs7.tag(Pkcs7.SEQUENCE,
+                    Pkcs7.oid(TST_INFO),
+                    Pkcs7.tag(0xA0, Pkcs7.tag(Pkcs7.OCTET_STRING, tstInfo))
+                ),
+                Pkcs7.tag(0xA0, this.key.chain[0].getEncoded()),
+                Pkcs7.tag(Pkcs7.SET, signerInfo)
+            ))
+        );
+
+        // TimeStampResp ::= SEQUENCE { status PKIStatusInfo, timeStampToken }
+        return Pkcs7.tag(Pkcs7.SEQUENCE, Pkcs7.tag(Pkcs7.SEQUENCE, Pkcs7.integer(BigInteger.ZERO)), token);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[0x2000];
+        int len;
+        while ((len = in.read(buf)) != -1)
+            out.write(buf, 0, len);
+        return out.toByteArray();
+    }
+}
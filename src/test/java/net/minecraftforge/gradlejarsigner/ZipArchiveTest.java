@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.gradlejarsigner;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@link ZipArchive} and {@link ZipWriter} against the JDK's own zip support. */
+public class ZipArchiveTest {
+    @TempDir
+    File dir;
+
+    @Test
+    public void readsJdkArchives() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("dir/", new byte[0]);
+        entries.put("dir/deflated.txt", repeat("deflated ", 1000));
+        entries.put("dir/data.stored", repeat("stored ", 1000));
+        entries.put("dir/ünïcödé.txt", "name".getBytes(StandardCharsets.UTF_8));
+        File file = new File(this.dir, "jdk.zip");
+        TestJars.create(file, entries);
+
+        try (ZipArchive zip = ZipArchive.open(file)) {
+            assertEquals(entries.size(), zip.getEntries().size(), "Entries");
+            for (Map.Entry<String, byte[]> entry : entries.entrySet())
+                assertArrayEquals(entry.getValue(), zip.readAll(zip.getEntry(entry.getKey())), entry.getKey());
+            assertEquals(ZipEntry.STORED, zip.getEntry("dir/data.stored").method, "Method");
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("dir/deflated.txt").method, "Method");
+        }
+    }
+
+    @Test
+    public void writesWhatJdkReads() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("dir/deflated.txt", repeat("deflated ", 1000));
+        entries.put("dir/data.stored", repeat("stored ", 1000));
+        entries.put("dir/ünïcödé.txt", "name".getBytes(StandardCharsets.UTF_8));
+        File input = new File(this.dir, "input.zip");
+        File output = new File(this.dir, "output.zip");
+        TestJars.create(input, entries);
+
+        // Copied as is, with new data, and brand new
+        try (ZipArchive zip = ZipArchive.open(input);
+             ZipWriter out = new ZipWriter(output)) {
+            out.write("new.txt", System.currentTimeMillis(), repeat("new ", 100));
+            out.copy(zip, zip.getEntry("dir/deflated.txt"));
+            out.copy(zip, zip.getEntry("dir/ünïcödé.txt"));
+            out.replace(zip.getEntry("dir/data.stored"), repeat("replaced ", 100));
+            out.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(output)) {
+            assertEquals(4, zip.size(), "Entries");
+            assertArrayEquals(repeat("new ", 100), read(zip, "new.txt"), "new.txt");
+            assertArrayEquals(entries.get("dir/deflated.txt"), read(zip, "dir/deflated.txt"), "dir/deflated.txt");
+            assertArrayEquals(entries.get("dir/ünïcödé.txt"), read(zip, "dir/ünïcödé.txt"), "dir/ünïcödé.txt");
+            assertArrayEquals(repeat("replaced ", 100), read(zip, "dir/data.stored"), "dir/data.stored");
+            assertEquals(ZipEntry.STORED, zip.getEntry("dir/data.stored").getMethod(), "Replaced entry was compressed");
+        }
+    }
+
+    @Test
+    public void writesZip64() throws Exception {
+        int count = 70_000;
+        File file = new File(this.dir, "zip64.zip");
+        try (ZipWriter out = new ZipWriter(file)) {
+            for (int x = 0; x < count; x++)
+                out.write("entry" + x, 0, new byte[] { (byte)x });
+            out.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(file)) {
+            assertEquals(count, zip.size(), "JDK entries");
+            assertArrayEquals(new byte[] { (byte)(count - 1) }, read(zip, "entry" + (count - 1)), "Last entry");
+        }
+        try (ZipArchive zip = ZipArchive.open(file)) {
+            assertEquals(count, zip.getEntries().size(), "Entries");
+            assertArrayEquals(new byte[] { (byte)(count - 1) }, zip.readAll(zip.getEntry("entry" + (count - 1))), "Last entry");
+        }
+    }
+
+    @Test
+    public void reproducibleDropsTimes() throws Exception {
+        File first = new File(this.dir, "first.zip");
+        File second = new File(this.dir, "second.zip");
+        try (ZipWriter out = new ZipWriter(first, true)) {
+            out.write("entry", 0, repeat("entry ", 10));
+            out.finish();
+        }
+        try (ZipWriter out = new ZipWriter(second, true)) {
+            out.write("entry", System.currentTimeMillis(), repeat("entry ", 10));
+            out.finish();
+        }
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()), "Archives differ");
+    }
+
+    @Test
+    public void unfinishedArchiveIsDeleted() throws Exception {
+        File file = new File(this.dir, "unfinished.zip");
+        try (ZipWriter out = new ZipWriter(file)) {
+            out.write("entry", 0, repeat("entry ", 10));
+        }
+        assertFalse(file.exists(), "Unfinished archive was left behind");
+    }
+
+    @Test
+    public void finishOnlyOnce() throws Exception {
+        try (ZipWriter out = new ZipWriter(new File(this.dir, "twice.zip"))) {
+            out.finish();
+            assertThrows(IllegalStateException.class, out::finish);
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedArchive() throws Exception {
+        byte[] data = TestJars.create(Collections.singletonMap("entry", repeat("entry ", 10)));
+        byte[] truncated = Arrays.copyOf(data, data.length - 10);
+        assertThrows(IOException.class, () -> ZipArchive.open(truncated, "truncated.zip"));
+    }
+
+    private static byte[] repeat(String value, int count) {
+        StringBuilder ret = new StringBuilder(value.length() * count);
+        for (int x = 0; x < count; x++)
+            ret.append(value);
+        return ret.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            byte[] buf = new byte[0x2000];
+            int len;
+            while ((len = in.read(buf)) != -1)
+                out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+}